@@ -0,0 +1,45 @@
+package benchmarks;
+
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+
+/*
+A full apCluster(), from zero messages until the default convergence policy stops it.
+Every invocation gets a new solver, built outside the measurement, so no run starts from
+the messages of the one before. precision picks the double engine, AffinityPropagation,
+or the float one, FloatAffinityPropagation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules=jdk.incubator.vector"})
+@State(Scope.Thread)
+public class ClusterBenchmark
+{
+    @Param({"0.5"})
+    public double slider;
+
+    @Param({"double", "float"})
+    public String precision;
+
+    private Object solver;
+
+
+    @Setup(Level.Invocation)
+    public void solver(Dataset dataset)
+    {
+        solver = precision.equals("float") ? Library.newFloatSolver(dataset.data, slider)
+                                           : Library.newSolver(dataset.data, slider);
+    }
+
+
+    @Benchmark
+    public int apCluster()
+    {
+        Object result = precision.equals("float") ? Library.floatApCluster(solver) : Library.apCluster(solver);
+
+        return Library.getNumClusters(result);
+    }
+}
@@ -0,0 +1,46 @@
+package benchmarks;
+
+import java.io.*;
+import java.nio.file.*;
+import org.openjdk.jmh.annotations.*;
+
+
+/*
+A synthetic survey shared by every benchmark of a trial, see SyntheticFingerprints. The
+.csv file is written once per parameter combination to a temporary file, read back into
+a FingerprintSet and deleted at the end of the trial.
+ */
+@State(Scope.Benchmark)
+public class Dataset
+{
+    @Param({"250", "500", "1000"})
+    public int referencePoints;
+
+    @Param({"20", "100"})
+    public int accessPoints;
+
+    @Param({"1"})
+    public long seed;
+
+    // file address of the survey and the FingerprintSet read from it
+    String filename;
+    Object data;
+
+
+    @Setup(Level.Trial)
+    public void write() throws IOException
+    {
+        Path file = Files.createTempFile("synthetic-" + referencePoints + "x" + accessPoints + "-", ".csv");
+
+        new SyntheticFingerprints(referencePoints, accessPoints, seed).write(file);
+        filename = file.toString();
+        data = Library.read(filename);
+    }
+
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException
+    {
+        Files.deleteIfExists(Paths.get(filename));
+    }
+}
@@ -0,0 +1,53 @@
+package benchmarks;
+
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+
+/*
+One pass of the message updates over a solver that keeps iterating from one invocation to
+the next. The cost of a pass does not depend on how far the messages have converged, so
+the solver is only set up once per trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules=jdk.incubator.vector"})
+@State(Scope.Thread)
+public class IterationBenchmark
+{
+    private Object solver;
+
+
+    @Setup(Level.Trial)
+    public void solver(Dataset dataset)
+    {
+        solver = Library.newSolver(dataset.data, 0.5);
+    }
+
+
+    @Benchmark
+    public Object updateResponsibilities()
+    {
+        Library.updateResponsibilities(solver);
+        return solver;
+    }
+
+
+    @Benchmark
+    public Object updateAvailabilities()
+    {
+        Library.updateAvailabilities(solver);
+        return solver;
+    }
+
+
+    @Benchmark
+    public Object iteration()
+    {
+        Library.updateResponsibilities(solver);
+        Library.updateAvailabilities(solver);
+        return solver;
+    }
+}
@@ -0,0 +1,284 @@
+package benchmarks;
+
+import java.io.*;
+import java.lang.invoke.*;
+
+
+/*
+The library lives in the unnamed package, which code in a named package cannot refer to,
+and JMH does not accept benchmarks in the unnamed package. Benchmarks therefore reach the
+library through the method handles below. They are static final, so the JIT treats them
+as constants and inlines the call just like a direct one; solvers and data sets are passed
+around as Object.
+ */
+final class Library
+{
+    private static final MethodHandle READ;
+    private static final MethodHandle NEW_SOLVER;
+    private static final MethodHandle NEW_FLOAT_SOLVER;
+    private static final MethodHandle SET_SIMILARITIES;
+    private static final MethodHandle SET_PREFERENCE;
+    private static final MethodHandle UPDATE_RESPONSIBILITIES;
+    private static final MethodHandle UPDATE_AVAILABILITIES;
+    private static final MethodHandle AP_CLUSTER;
+    private static final MethodHandle FLOAT_AP_CLUSTER;
+    private static final MethodHandle GET_NUM_CLUSTERS;
+    private static final MethodHandle GET_EXAMPLARS;
+    private static final MethodHandle GET_ITERATIONS;
+
+    static
+    {
+        try
+        {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> set = Class.forName("FingerprintSet");
+            Class<?> solver = Class.forName("AffinityPropagation");
+            Class<?> floatSolver = Class.forName("FloatAffinityPropagation");
+            Class<?> result = Class.forName("ClusteringResult");
+
+            READ = lookup.findStatic(set, "read", MethodType.methodType(set, String.class))
+                         .asType(MethodType.methodType(Object.class, String.class));
+            NEW_SOLVER = lookup.findConstructor(solver, MethodType.methodType(void.class, set, double.class))
+                               .asType(MethodType.methodType(Object.class, Object.class, double.class));
+            NEW_FLOAT_SOLVER = lookup.findConstructor(floatSolver, MethodType.methodType(void.class, set, double.class))
+                                     .asType(MethodType.methodType(Object.class, Object.class, double.class));
+            SET_SIMILARITIES = virtual(lookup, solver, "setSimilarities", MethodType.methodType(void.class));
+            SET_PREFERENCE = virtual(lookup, solver, "setPreference", MethodType.methodType(void.class, double.class));
+            UPDATE_RESPONSIBILITIES = virtual(lookup, solver, "updateResponsibilities", MethodType.methodType(void.class));
+            UPDATE_AVAILABILITIES = virtual(lookup, solver, "updateAvailabilities", MethodType.methodType(void.class));
+            AP_CLUSTER = virtual(lookup, solver, "apCluster", MethodType.methodType(result));
+            FLOAT_AP_CLUSTER = virtual(lookup, floatSolver, "apCluster", MethodType.methodType(result));
+            GET_NUM_CLUSTERS = virtual(lookup, result, "getNumClusters", MethodType.methodType(int.class));
+            GET_EXAMPLARS = virtual(lookup, result, "getExamplars", MethodType.methodType(int[].class));
+            GET_ITERATIONS = virtual(lookup, result, "getIterations", MethodType.methodType(int.class));
+        }
+
+        catch(ReflectiveOperationException e)
+        {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+
+    private Library()
+    {
+    }
+
+
+    /**
+     * looks up an instance method and erases its receiver, and its return type if that is a library class, to Object
+     */
+    private static MethodHandle virtual(MethodHandles.Lookup lookup, Class<?> owner, String name, MethodType type)
+        throws ReflectiveOperationException
+    {
+        MethodHandle handle = lookup.findVirtual(owner, name, type);
+        // primitives, arrays of them and JDK classes come from the boot loader and stay as they are
+        Class<?> returned = (type.returnType().getClassLoader() == null) ? type.returnType() : Object.class;
+
+        return handle.asType(type.changeReturnType(returned).insertParameterTypes(0, Object.class));
+    }
+
+
+    /**
+     * FingerprintSet.read(filename), the parsing behind AffinityPropagation.setPoints()
+     */
+    static Object read(String filename) throws IOException
+    {
+        try
+        {
+            return (Object) READ.invokeExact(filename);
+        }
+
+        catch(IOException | RuntimeException | Error e)
+        {
+            throw e;
+        }
+
+        catch(Throwable e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    /**
+     * new AffinityPropagation(data, slider), which builds the similarity matrix and the preference
+     */
+    static Object newSolver(Object data, double slider)
+    {
+        try
+        {
+            return (Object) NEW_SOLVER.invokeExact(data, slider);
+        }
+
+        catch(Throwable e)
+        {
+            throw rethrow(e);
+        }
+    }
+
+
+    /**
+     * new FloatAffinityPropagation(data, slider)
+     */
+    static Object newFloatSolver(Object data, double slider)
+    {
+        try
+        {
+            return (Object) NEW_FLOAT_SOLVER.invokeExact(data, slider);
+        }
+
+        catch(Throwable e)
+        {
+            throw rethrow(e);
+        }
+    }
+
+
+    static void setSimilarities(Object solver)
+    {
+        try
+        {
+            SET_SIMILARITIES.invokeExact(solver);
+        }
+
+        catch(Throwable e)
+        {
+            throw rethrow(e);
+        }
+    }
+
+
+    static void setPreference(Object solver, double preference)
+    {
+        try
+        {
+            SET_PREFERENCE.invokeExact(solver, preference);
+        }
+
+        catch(Throwable e)
+        {
+            throw rethrow(e);
+        }
+    }
+
+
+    static void updateResponsibilities(Object solver)
+    {
+        try
+        {
+            UPDATE_RESPONSIBILITIES.invokeExact(solver);
+        }
+
+        catch(Throwable e)
+        {
+            throw rethrow(e);
+        }
+    }
+
+
+    static void updateAvailabilities(Object solver)
+    {
+        try
+        {
+            UPDATE_AVAILABILITIES.invokeExact(solver);
+        }
+
+        catch(Throwable e)
+        {
+            throw rethrow(e);
+        }
+    }
+
+
+    /**
+     * @return returns the ClusteringResult of the run
+     */
+    static Object apCluster(Object solver)
+    {
+        try
+        {
+            return (Object) AP_CLUSTER.invokeExact(solver);
+        }
+
+        catch(Throwable e)
+        {
+            throw rethrow(e);
+        }
+    }
+
+
+    /**
+     * @return returns the ClusteringResult of the run of a FloatAffinityPropagation
+     */
+    static Object floatApCluster(Object solver)
+    {
+        try
+        {
+            return (Object) FLOAT_AP_CLUSTER.invokeExact(solver);
+        }
+
+        catch(Throwable e)
+        {
+            throw rethrow(e);
+        }
+    }
+
+
+    static int[] getExamplars(Object result)
+    {
+        try
+        {
+            return (int[]) GET_EXAMPLARS.invokeExact(result);
+        }
+
+        catch(Throwable e)
+        {
+            throw rethrow(e);
+        }
+    }
+
+
+    static int getIterations(Object result)
+    {
+        try
+        {
+            return (int) GET_ITERATIONS.invokeExact(result);
+        }
+
+        catch(Throwable e)
+        {
+            throw rethrow(e);
+        }
+    }
+
+
+    static int getNumClusters(Object result)
+    {
+        try
+        {
+            return (int) GET_NUM_CLUSTERS.invokeExact(result);
+        }
+
+        catch(Throwable e)
+        {
+            throw rethrow(e);
+        }
+    }
+
+
+    private static RuntimeException rethrow(Throwable e)
+    {
+        if(e instanceof RuntimeException)
+        {
+            throw (RuntimeException) e;
+        }
+
+        if(e instanceof Error)
+        {
+            throw (Error) e;
+        }
+
+        return new IllegalStateException(e);
+    }
+}
@@ -0,0 +1,25 @@
+package benchmarks;
+
+import java.io.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+
+/*
+Reading a survey, the work AffinityPropagation.setPoints() does: the .csv file is parsed
+into its reference points, readings and psi_matrix block. The file is in the page cache
+after the first read, so this measures parsing rather than the disk.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules=jdk.incubator.vector"})
+public class ParseBenchmark
+{
+    @Benchmark
+    public Object setPoints(Dataset dataset) throws IOException
+    {
+        return Library.read(dataset.filename);
+    }
+}
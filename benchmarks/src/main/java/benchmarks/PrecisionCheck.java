@@ -0,0 +1,88 @@
+package benchmarks;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+
+/*
+Checks that the float engine, FloatAffinityPropagation, finds the same examplars as the
+double engine, AffinityPropagation. Every data set is clustered by both at a low and a
+high slider and the examplar of every reference point is compared; the run fails if any
+of them differs. Without arguments the data sets are synthetic surveys of a range of
+sizes (see SyntheticFingerprints), otherwise the .csv files named on the command line.
+ */
+public class PrecisionCheck
+{
+    private static final int[][] SYNTHETIC = {{100, 10}, {250, 20}, {500, 50}, {1000, 100}, {1500, 300}};
+    private static final long[] SEEDS = {1, 2, 3};
+    private static final double[] SLIDERS = {0.05, 0.5};
+
+
+    public static void main(String[] args) throws IOException
+    {
+        List<String> files = new ArrayList<String>(Arrays.asList(args));
+        List<Path> written = new ArrayList<Path>();
+        int failed = 0, checked = 0;
+
+        if(files.isEmpty() == true)
+        {
+            for(int[] size : SYNTHETIC)
+            {
+                for(long seed : SEEDS)
+                {
+                    Path file = Files.createTempFile("synthetic-" + size[0] + "x" + size[1] + "-" + seed + "-", ".csv");
+
+                    new SyntheticFingerprints(size[0], size[1], seed).write(file);
+                    written.add(file);
+                    files.add(file.toString());
+                }
+            }
+        }
+
+        try
+        {
+            for(String filename : files)
+            {
+                Object data = Library.read(filename);
+
+                for(double slider : SLIDERS)
+                {
+                    Object expected = Library.apCluster(Library.newSolver(data, slider));
+                    Object actual = Library.floatApCluster(Library.newFloatSolver(data, slider));
+                    int[] a = Library.getExamplars(expected), b = Library.getExamplars(actual);
+                    int differing = 0;
+
+                    for(int i = 0; i < a.length; i += 1)
+                    {
+                        differing += (a[i] != b[i]) ? 1 : 0;
+                    }
+
+                    System.out.println(((differing == 0) ? "same     " : "DIFFERENT") + " " + Paths.get(filename).getFileName()
+                                       + " slider " + slider + ": " + Library.getNumClusters(expected) + " / "
+                                       + Library.getNumClusters(actual) + " clusters, " + Library.getIterations(expected)
+                                       + " / " + Library.getIterations(actual) + " iterations, " + differing + " of "
+                                       + a.length + " examplars differ");
+
+                    failed += (differing == 0) ? 0 : 1;
+                    checked += 1;
+                }
+            }
+        }
+
+        finally
+        {
+            for(Path file : written)
+            {
+                Files.deleteIfExists(file);
+            }
+        }
+
+        System.out.println((checked - failed) + " of " + checked + " runs found the same examplars");
+
+        if(failed > 0)
+        {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package benchmarks;
+
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+
+/*
+Building the similarity matrix and the preference of a survey. setSimilarities() covers
+both, calculatePreference() only the preference, which is recomputed by going back to the
+slider and gama with setPreference(NaN); that also writes the N diagonal entries, which
+is noise next to the selection over N^2 similarities. Both run on the calling thread.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules=jdk.incubator.vector"})
+@State(Scope.Thread)
+public class SimilarityBenchmark
+{
+    private Object solver;
+
+
+    @Setup(Level.Trial)
+    public void solver(Dataset dataset)
+    {
+        solver = Library.newSolver(dataset.data, 0.5);
+    }
+
+
+    @Benchmark
+    public Object setSimilarities()
+    {
+        Library.setSimilarities(solver);
+        return solver;
+    }
+
+
+    @Benchmark
+    public Object calculatePreference()
+    {
+        Library.setPreference(solver, Double.NaN);
+        return solver;
+    }
+}
@@ -0,0 +1,141 @@
+package benchmarks;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+
+/*
+Writes a synthetic survey in the .csv format the library reads. The access points are put
+at random in a 50 x 50 m area and every reference point gets one reading per access point
+from a log-distance path loss model, -40 - 20 log10(d + 1) dBm plus gaussian noise with a
+standard deviation of 2 dB, rounded to whole dBm and clamped at -100. The readings are
+repeated, one access point per row, in a trailing psi_matrix block. Everything is drawn
+from one seeded Random, so the same (points, access points, seed) always gives the same
+file byte for byte.
+ */
+public class SyntheticFingerprints
+{
+    private static final double AREA = 50.0;
+    private static final double NOISE = 2.0;
+    private static final int FLOOR_RSS = -100;
+
+    private final int numReferencePoints, numAccessPoints;
+    private final long seed;
+
+
+    /**
+     * Constructor of the SyntheticFingerprints class.
+     * @param numReferencePoints number of reference points of the survey
+     * @param numAccessPoints number of readings of every reference point
+     * @param seed seed of the random numbers
+     */
+    public SyntheticFingerprints(int numReferencePoints, int numAccessPoints, long seed)
+    {
+        if(numReferencePoints < 1 || numAccessPoints < 1)
+        {
+            throw new IllegalArgumentException("a survey needs at least one reference point and one access point: "
+                                               + numReferencePoints + " x " + numAccessPoints);
+        }
+
+        this.numReferencePoints = numReferencePoints;
+        this.numAccessPoints = numAccessPoints;
+        this.seed = seed;
+    }
+
+
+    /**
+     * writes the survey to a file
+     * @param file file address of the survey
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path file) throws IOException
+    {
+        try(Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8))
+        {
+            write(writer);
+        }
+    }
+
+
+    /**
+     * writes the survey
+     * @param writer where the survey is written to, not closed
+     * @throws IOException if the writer fails
+     */
+    public void write(Writer writer) throws IOException
+    {
+        int n = numReferencePoints, m = numAccessPoints;
+        Random random = new Random(seed);
+        double[] accessX = new double[m], accessY = new double[m];
+        int[] rss = new int[n * m];
+
+        for(int j = 0; j < m; j += 1)
+        {
+            accessX[j] = random.nextDouble() * AREA;
+            accessY[j] = random.nextDouble() * AREA;
+        }
+
+        writer.write("source_device_model,synthetic\n");
+        writer.write("building,synthetic\n");
+        writer.write("floor,1\n");
+        writer.write("number_of_points," + n + "\n");
+        writer.write("MACListLength," + m + "\n");
+
+        for(int i = 0; i < n; i += 1)
+        {
+            double x = Math.round(random.nextDouble() * AREA * 10.0) / 10.0;
+            double y = Math.round(random.nextDouble() * AREA * 10.0) / 10.0;
+
+            writer.write("begin_new_point\n");
+            writer.write("Coordinate," + x + "," + y + "\n");
+            writer.write("Labeled Point,1,1\n");
+            writer.write("N,0,0\n");
+
+            for(int j = 0; j < m; j += 1)
+            {
+                double distance = Math.hypot(accessX[j] - x, accessY[j] - y);
+                long value = Math.round(-40.0 - 20.0 * Math.log10(distance + 1.0) + random.nextGaussian() * NOISE);
+
+                rss[i * m + j] = (int) Math.max(FLOOR_RSS, value);
+                writer.write(rss[i * m + j] + "\n");
+            }
+
+            writer.write("end_of_point\n");
+        }
+
+        writer.write("psi_matrix," + m + "," + n + "\n");
+
+        for(int j = 0; j < m; j += 1)
+        {
+            StringBuilder row = new StringBuilder(n * 4);
+
+            for(int i = 0; i < n; i += 1)
+            {
+                row.append((i == 0) ? "" : ",").append(rss[i * m + j]);
+            }
+
+            writer.write(row.append('\n').toString());
+        }
+
+        writer.flush();
+    }
+
+
+    /**
+     * writes a survey from the command line
+     * @param args number of reference points, number of access points, seed and output file
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if(args.length != 4)
+        {
+            System.err.println("usage: SyntheticFingerprints <reference points> <access points> <seed> <file.csv>");
+            System.exit(2);
+        }
+
+        new SyntheticFingerprints(Integer.parseInt(args[0]), Integer.parseInt(args[1]), Long.parseLong(args[2]))
+            .write(Paths.get(args[3]));
+    }
+}
@@ -1,11 +1,14 @@
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 
-public class AffinityPropagation
+public class AffinityPropagation implements AutoCloseable
 {
     // input file information
     private String filename;
+    private FingerprintSet data;
     private String sourceDeviceModel;
     private String building;
     private int floor;
@@ -13,25 +16,75 @@ public class AffinityPropagation
     // data point information
     private int numReferencePoints, numAccessPoints;
     private ReferencePoint[] points;
+    private double[] fingerprints;
 
-    // affinity propagation input
+    // affinity propagation input, every N x N matrix is stored row after row in one array
     private double[][] psi;
-    private double[][] similarities;
+    private double[] similarities;
     private double gama = 0.36; // for now so the code works as it should!
     private double dampingFactor = 0.5;
     private double slider;
+    // noisyScale is the tie-break noise the current similarities carry
+    private double tieBreakNoise, noisyScale;
+    private static final long NOISE_SEED = 0x7ee5;
+    private SimilarityKernel kernel = SimilarityKernel.best();
+    private boolean symmetric;
+    private int preferenceSamples = 0;
+    private static final long PREFERENCE_SEED = 0x5eed;
+    private boolean similarities_psi;
+    // NaN while the preference comes from slider and gama
+    private double fixedPreference = Double.NaN;
+    // only built once points are added or removed, see sortedSimilarities()
+    private SortedSimilarities sorted;
 
     // affinity propagation parameters
-    private double[][] responsibilities;
-    private double[][] availablities;
+    private double[] responsibilities;
+    private double[] availablities;
+    private double[] positiveSums;
+    private double[] selfResponsibilities;
 
     // affinity propagation output
-    private double[][] combined;
+    private int[] examplarIndices;
+    private int[] examplars;
     private int numClusters;
 
-    // extra - house keeping
-    private static int fileNumber = 0;
-    private static int filenumber_matlab = 0;
+    // convergence, rowChanges holds the largest message change of every row in the last phase
+    private ConvergencePolicy convergence = new ConvergencePolicy();
+    private ConvergencePolicy.StopReason stopReason;
+    private int iterations;
+    private double[] rowChanges;
+    private double maxMessageChange;
+
+    // damping, dampingFactor is the one of the current iteration and only moves under an adaptive policy; evidence
+    // holds the sign of r(k,k) + a(k,k), lastFlip and previousFlip the last two iterations it turned in, loweredFrom
+    // the preference before the policy lowered it (NaN if it has not)
+    private DampingPolicy damping = new DampingPolicy();
+    private int oscillating, calm;
+    private boolean[] evidence;
+    private int[] lastFlip, previousFlip;
+    private double loweredFrom = Double.NaN;
+
+    // checkpointing, no checkpoints are written while checkpointFile is null
+    private String checkpointFile;
+    private int checkpointInterval;
+
+    // parallel execution, every phase runs on the calling thread until setParallelism() or setPool() gives it a pool
+    private final SolverPool pool = new SolverPool();
+
+    // instrumentation, an iteration is only timed and summed up while there is a listener, counting is on or a
+    // flight recording takes the IterationEvent; labelChanges is counted in every iteration as it costs nothing
+    private final List<IterationListener> listeners = new ArrayList<IterationListener>();
+    private boolean counting;
+    private volatile SolverCounters counters = SolverCounters.EMPTY;
+    private int labelChanges;
+    private boolean[] examplarSeen;
+
+    // extra - house keeping, the cluster files are numbered across all solvers unless a solver has a directory of its own
+    private static final AtomicInteger fileNumber = new AtomicInteger();
+    private static final AtomicInteger filenumber_matlab = new AtomicInteger();
+    private String outputDirectory;
+    private final AtomicInteger outputNumber = new AtomicInteger();
+    private final AtomicInteger outputNumber_matlab = new AtomicInteger();
 
 
     /**
@@ -71,6 +124,70 @@ public class AffinityPropagation
     }
 
 
+    /**
+     * Constructor of the AffinityPropagation class for a solver without a data set yet, which is given one, or one
+     * after another, with load().
+     * @param slider double value between 0-1
+     */
+    public AffinityPropagation(double slider)
+    {
+        this.numClusters = 0;
+        this.slider = slider;
+
+        setPoints(new FingerprintSet(null, null, null, 0, new ReferencePoint[0], new double[0], 0, null));
+        affinityPropagation_instantiation();
+    }
+
+
+    /**
+     * Constructor of the AffinityPropagation class for a data set that has already been read.
+     * @param data reference points and readings of the data set
+     * @param slider double value between 0-1
+     */
+    public AffinityPropagation(FingerprintSet data, double slider)
+    {
+        this.numClusters = 0;
+        this.slider = slider;
+
+        // setting other data structures
+        setPoints(data);
+        affinityPropagation_instantiation();
+        setSimilarities();
+    }
+
+
+    /**
+     * Constructor of the AffinityPropagation class for a binary survey file. If the file carries a similarity
+     * matrix it is used as is and setSimilarities() is skipped; only the preference is recomputed. The tie-break
+     * noise the matrix was written with stays the noise of the solver.
+     * @param file a mapped binary survey file
+     * @param slider double value between 0-1
+     */
+    public AffinityPropagation(FingerprintFile file, double slider)
+    {
+        this.numClusters = 0;
+        this.slider = slider;
+
+        // setting other data structures
+        setPoints(file.toFingerprintSet());
+        affinityPropagation_instantiation();
+
+        if(file.getSimilarities() != null)
+        {
+            file.getSimilarities().get(similarities, 0, numReferencePoints * numReferencePoints);
+            symmetric = file.isSymmetric();
+            tieBreakNoise = file.getNoiseScale();
+            noisyScale = file.getNoiseScale();
+            setPreferences();
+        }
+
+        else
+        {
+            setSimilarities();
+        }
+    }
+
+
     public int getNumClusters()
     {
         return numClusters;
@@ -89,10 +206,360 @@ public class AffinityPropagation
     }
 
 
+    /**
+     * @return returns the number of iterations the messages have been through, including those of a restored state
+     */
+    public int getIterations()
+    {
+        return iterations;
+    }
+
+
+    /**
+     * @return returns why the last call of apCluster() stopped, or null if it has not been called
+     */
+    public ConvergencePolicy.StopReason getStopReason()
+    {
+        return stopReason;
+    }
+
+
+    /**
+     * @return returns the index of the examplar of every reference point, -1 where none has been found yet
+     */
+    public int[] getExamplars()
+    {
+        return examplars.clone();
+    }
+
+
+    /**
+     * sets when apCluster() stops, see ConvergencePolicy
+     * @param convergence the policy used by the following calls of apCluster()
+     */
+    public void setConvergencePolicy(ConvergencePolicy convergence)
+    {
+        this.convergence = convergence;
+    }
+
+
+    /**
+     * sets how the damping factor of the message updates is chosen, see DampingPolicy. the damping starts over at
+     * the policy's smallest damping factor, so does a run after reset() or load()
+     * @param damping the policy used by the following calls of apCluster()
+     */
+    public void setDampingPolicy(DampingPolicy damping)
+    {
+        this.damping = damping;
+        clearDamping();
+    }
+
+
+    /**
+     * @return returns the damping factor the next iteration runs with
+     */
+    public double getDampingFactor()
+    {
+        return dampingFactor;
+    }
+
+
+    /**
+     * makes the similarities slightly lower by a deterministic amount for every pair of reference points, below scale
+     * of their size, so that equal similarities (points with the same readings, for instance) no longer tie for
+     * examplar and oscillate. the noise is the same on every run and for s(i,k) and s(k,i). similarities that have
+     * already been built, by a constructor for instance, get it right away, in place of any noise they carried, and
+     * the preference is computed again; those built later by setSimilarities(), setSimilarities_psi(), load() and
+     * addPoints() get it as they are built
+     * @param scale size of the noise relative to each similarity, in [0, 1), for instance 1e-12; 0 adds none
+     */
+    public void setTieBreakNoise(double scale)
+    {
+        if((scale >= 0 && scale < 1) == false)
+        {
+            throw new IllegalArgumentException("noise scale must be in [0, 1): " + scale);
+        }
+
+        tieBreakNoise = scale;
+
+        if(numReferencePoints == 0 || noisyScale == scale)
+        {
+            return;
+        }
+
+        // the matrix may not be rebuildable (row weights, a matrix read from a file), so the old noise is taken out
+        removeTieBreakNoise();
+        addTieBreakNoise(0);
+        sorted = null;
+        setPreferences();
+    }
+
+
+    /**
+     * makes apCluster() write a snapshot of its state (see SolverState) every interval iterations and once more
+     * when it stops, so that a run that gets killed can be resumed with setState(SolverState.read(filename))
+     * @param filename file address of the snapshot, or null to stop checkpointing
+     * @param interval number of iterations between two snapshots
+     */
+    public void setCheckpoint(String filename, int interval)
+    {
+        if(filename != null && interval < 1)
+        {
+            throw new IllegalArgumentException("checkpoint interval must be at least 1: " + interval);
+        }
+
+        this.checkpointFile = filename;
+        this.checkpointInterval = interval;
+    }
+
+
+    /**
+     * takes a snapshot of the messages, the iteration count, the examplars and the state of the damping policy
+     * @return returns a copy of the current state
+     */
+    public SolverState getState()
+    {
+        return snapshot(true);
+    }
+
+
+    /**
+     * continues from a snapshot instead of from zero messages. the snapshot may come from this data set, to resume
+     * an interrupted run, or from a slightly different data set with the same number of reference points, to warm
+     * start on it. under an adaptive damping policy the damping factor, the streaks and a lowered preference are
+     * taken over as well; a preference lowered on another data set is lowered here by the same fraction. under a fixed
+     * policy they start over
+     * @param state a snapshot taken by getState() or read by SolverState.read()
+     * @throws IllegalArgumentException if the state is of another size, or has no damping state (a version 1 file)
+     * while the damping policy is adaptive
+     */
+    public void setState(SolverState state)
+    {
+        if(state.getNumReferencePoints() != numReferencePoints)
+        {
+            throw new IllegalArgumentException("the state has " + state.getNumReferencePoints() + " reference points, not "
+                                               + numReferencePoints);
+        }
+
+        if(damping.isAdaptive() == true && state.hasDampingState() == false)
+        {
+            throw new IllegalArgumentException("the state has no damping state to resume the adaptive damping policy from");
+        }
+
+        int[] labels = state.getExamplars();
+
+        state.getResponsibilities().get(responsibilities, 0, numReferencePoints * numReferencePoints);
+        state.getAvailabilities().get(availablities, 0, numReferencePoints * numReferencePoints);
+        iterations = state.getIterations();
+
+        for(ReferencePoint point : points)
+        {
+            point.examplar = null;
+            point.cluster_head = false;
+        }
+
+        for(int i = 0; i < numReferencePoints; i += 1)
+        {
+            if(labels[i] < -1 || labels[i] >= numReferencePoints)
+            {
+                throw new IllegalArgumentException("examplar " + labels[i] + " of reference point " + i + " is out of range");
+            }
+
+            examplars[i] = labels[i];
+            points[i].examplar_changed = true;
+
+            if(labels[i] >= 0)
+            {
+                points[i].examplar = points[labels[i]];
+                points[labels[i]].cluster_head = true;
+            }
+        }
+
+        clearDamping();
+
+        if(damping.isAdaptive() == true)
+        {
+            restoreDamping(state);
+        }
+    }
+
+
+    /**
+     * takes over the damping state of a snapshot; clearDamping() has put the preference back where it was before
+     */
+    private void restoreDamping(SolverState state)
+    {
+        int n = numReferencePoints;
+
+        dampingFactor = state.getDampingFactor();
+        oscillating = state.getOscillating();
+        calm = state.getCalm();
+        evidence = state.getEvidence();
+        lastFlip = state.getLastFlip();
+        previousFlip = state.getPreviousFlip();
+
+        if(n > 0 && Double.isNaN(state.getLoweredFrom()) == false && state.getLoweredFrom() != 0)
+        {
+            double preference = similarities[0], from = state.getLoweredFrom(), to = state.getLoweredTo();
+
+            loweredFrom = preference;
+            preference = (preference == from) ? to : preference - Math.abs(preference) * (from - to) / Math.abs(from);
+
+            for(int i = 0; i < n; i += 1)
+            {
+                similarities[i * n + i] = preference;
+            }
+        }
+    }
+
+
+    /**
+     * moves the solver onto another data set and builds its similarities, so the next apCluster() clusters it from
+     * zero messages. the settings (slider, fixed preference, convergence policy, pool, listeners, checkpointing) are
+     * kept, and so are the N x N matrices, which only grow when the data set has more reference points than any the
+     * solver has had before (see affinityPropagation_instantiation())
+     * @param data reference points and readings of the next data set
+     */
+    public void load(FingerprintSet data)
+    {
+        setPoints(data);
+        affinityPropagation_instantiation();
+        clearRun();
+        setSimilarities();
+    }
+
+
+    /**
+     * forgets the messages and examplars found so far, so the next apCluster() starts over from zero messages on the
+     * same data set and similarities
+     */
+    public void reset()
+    {
+        int size = numReferencePoints * numReferencePoints;
+
+        Arrays.fill(responsibilities, 0, size, 0.0);
+        Arrays.fill(availablities, 0, size, 0.0);
+        clearRun();
+    }
+
+
+    /**
+     * clears the examplars, the iteration count and the outcome of the last run
+     */
+    private void clearRun()
+    {
+        Arrays.fill(examplars, -1);
+
+        for(ReferencePoint point : points)
+        {
+            point.examplar = null;
+            point.examplar_changed = true;
+            point.cluster_head = false;
+        }
+
+        iterations = 0;
+        stopReason = null;
+        maxMessageChange = 0.0;
+        numClusters = 0;
+        clearDamping();
+    }
+
+
+    /**
+     * puts the damping back where a run starts, and the preference back where it was if the policy lowered it
+     */
+    private void clearDamping()
+    {
+        int n = numReferencePoints;
+
+        if(Double.isNaN(loweredFrom) == false)
+        {
+            for(int i = 0; i < n; i += 1)
+            {
+                similarities[i * n + i] = loweredFrom;
+            }
+
+            loweredFrom = Double.NaN;
+        }
+
+        dampingFactor = damping.getMinDamping();
+        oscillating = 0;
+        calm = 0;
+        evidence = null;
+    }
+
+
+    /**
+     * makes apCluster() report every iteration to the listener, see IterationListener
+     * @param listener called after every iteration, on the thread running apCluster()
+     */
+    public void addIterationListener(IterationListener listener)
+    {
+        listeners.add(listener);
+    }
+
+
+    public void removeIterationListener(IterationListener listener)
+    {
+        listeners.remove(listener);
+    }
+
+
+    /**
+     * turns the running totals of getCounters() on or off. they are also kept while a listener is registered or a
+     * flight recording takes the IterationEvent
+     * @param counting true to time and count every iteration
+     */
+    public void setCounting(boolean counting)
+    {
+        this.counting = counting;
+    }
+
+
+    /**
+     * @return returns the totals over every instrumented iteration so far; safe to call from any thread
+     */
+    public SolverCounters getCounters()
+    {
+        return counters;
+    }
+
+
+    /**
+     * sets how many threads apCluster() splits its rows and columns over
+     * @param parallelism number of threads, 1 runs everything on the calling thread
+     */
+    public void setParallelism(int parallelism)
+    {
+        pool.setParallelism(parallelism);
+    }
+
+
+    /**
+     * makes apCluster() run its phases on the given pool
+     * @param pool a ForkJoinPool shared with the caller, or null to run on the calling thread
+     */
+    public void setPool(ForkJoinPool pool)
+    {
+        this.pool.set(pool);
+    }
+
+
+    /**
+     * shuts down the pool if setParallelism() made it, a pool given to setPool() is left to the caller; the solver
+     * runs on the calling thread afterwards
+     */
+    @Override
+    public void close()
+    {
+        pool.close();
+    }
+
+
     /**
      * prints the matrix to the console
-     * @param matrix a 2D matrix of doubles (similarity, responsibility, availability, combined)
-     * @param name name of the matrix (similarity, responsibility, availability, combined)
+     * @param matrix a 2D matrix of doubles (similarity, responsibility, availability)
+     * @param name name of the matrix (similarity, responsibility, availability)
      */
     public void printMatrix(double[][] matrix, String name)
     {
@@ -112,6 +579,30 @@ public class AffinityPropagation
     }
 
 
+    /**
+     * prints the matrix to the console
+     * @param matrix a square matrix of doubles stored row after row (similarity, responsibility, availability)
+     * @param size number of rows (and columns) of the matrix
+     * @param name name of the matrix (similarity, responsibility, availability)
+     */
+    public void printMatrix(double[] matrix, int size, String name)
+    {
+        System.out.println(name + ":");
+
+        for(int i = 0; i < size; i += 1)
+        {
+            for(int j = 0; j < size; j += 1)
+            {
+                System.out.print(matrix[i * size + j] + "	");
+            }
+
+            System.out.println();
+        }
+
+        System.out.println();
+    }
+
+
     /**
      * prints the cluster passed to the function
      * @param cluster an array list of reference points in one cluster
@@ -122,544 +613,1169 @@ public class AffinityPropagation
 
         for(ReferencePoint point : cluster)
         {
-            System.out.print(point);
+            System.out.print(point);
+        }
+
+        System.out.println("}");
+    }
+
+
+    /**
+     * reads the .csv file associated with this object and stores its information
+     * @throws UncheckedIOException if the file cannot be read or is malformed
+     */
+    public void setPoints()
+    {
+        try
+        {
+            setPoints(FingerprintSet.read(filename));
+        }
+
+        catch(IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    /**
+     * stores the information of a data set that has already been read
+     * @param data reference points and readings of a data set
+     */
+    public void setPoints(FingerprintSet data)
+    {
+        this.data = data;
+        filename = data.getFilename();
+        sourceDeviceModel = data.getSourceDeviceModel();
+        building = data.getBuilding();
+        floor = data.getFloor();
+        numReferencePoints = data.getNumReferencePoints();
+        numAccessPoints = data.getNumAccessPoints();
+        points = data.getPoints();
+        fingerprints = data.getFingerprints();
+        psi = data.getPsi();
+    }
+
+
+    /**
+     * adds the reference points of another survey of the same access points to a live clustering. only the
+     * similarities of the new points are computed, the preference is updated from the similarities that were
+     * added, and the messages between the existing points are kept, so the next apCluster() resumes from them
+     * @param survey reference points and readings to add
+     */
+    public void addPoints(FingerprintSet survey)
+    {
+        int n = numReferencePoints, k = survey.getNumReferencePoints(), size = n + k, m = numAccessPoints;
+        int[] kept = new int[n];
+
+        if(survey.getNumAccessPoints() != m)
+        {
+            throw new IllegalArgumentException("the survey has " + survey.getNumAccessPoints() + " access points, not " + m);
+        }
+
+        checkIncremental();
+        sortedSimilarities();
+
+        for(int i = 0; i < n; i += 1)
+        {
+            kept[i] = i;
+        }
+
+        // readings and reference points, the new ones after the existing ones
+        double[] grown = Arrays.copyOf(fingerprints, size * m);
+        ReferencePoint[] all = Arrays.copyOf(points, size);
+        System.arraycopy(survey.getFingerprints(), 0, grown, n * m, k * m);
+
+        for(int i = 0; i < size; i += 1)
+        {
+            if(i < n)
+            {
+                all[i].setFingerprints(grown, i * m);
+            }
+
+            else
+            {
+                ReferencePoint point = survey.getPoints()[i - n];
+                all[i] = new ReferencePoint(point.x, point.y, grown, i * m, m);
+                all[i].orientation = point.orientation;
+            }
+        }
+
+        resize(all, grown, kept);
+
+        // the similarities of the new points, which are also the only ones the preference has not seen yet
+        SimilarityBuilder.build_rows_appended(fingerprints, size, m, n, similarities, kernel, pool.get());
+        addTieBreakNoise(n);
+
+        if(sorted != null)
+        {
+            double[] added = new double[(int) ((long) k * n + (long) k * (k - 1) / 2)];
+            int count = 0;
+
+            for(int j = n; j < size; j += 1)
+            {
+                for(int i = 0; i < j; i += 1)
+                {
+                    added[count] = similarities[i * size + j];
+                    count += 1;
+                }
+            }
+
+            sorted.add(added, count);
+        }
+
+        setPreferences();
+    }
+
+
+    /**
+     * removes reference points from a live clustering. the preference is updated from the similarities that were
+     * removed and the messages between the remaining points are kept, so the next apCluster() resumes from them.
+     * points whose examplar was removed have none (null) until then
+     * @param indices indices of the reference points to remove
+     */
+    public void removePoints(int... indices)
+    {
+        int n = numReferencePoints, m = numAccessPoints, size = n, count = 0;
+        boolean[] removed = new boolean[n];
+
+        checkIncremental();
+
+        for(int index : indices)
+        {
+            if(index < 0 || index >= n)
+            {
+                throw new IllegalArgumentException("reference point " + index + " is out of range");
+            }
+
+            size -= removed[index] ? 0 : 1;
+            removed[index] = true;
+        }
+
+        if(sortedSimilarities() != null)
+        {
+            // every pair with a removed point once, pairs of two removed points from the lower index
+            double[] taken = new double[(int) ((long) (n - size) * n)];
+
+            for(int i = 0; i < n; i += 1)
+            {
+                for(int j = 0; removed[i] && j < n; j += 1)
+                {
+                    if(j != i && (removed[j] == false || j > i))
+                    {
+                        taken[count] = similarities[i * n + j];
+                        count += 1;
+                    }
+                }
+            }
+
+            sorted.remove(taken, count);
+        }
+
+        int[] kept = new int[size], renumbered = new int[n];
+        double[] shrunk = new double[size * m];
+        ReferencePoint[] remaining = new ReferencePoint[size];
+
+        for(int i = 0, added = 0; i < n; i += 1)
+        {
+            renumbered[i] = removed[i] ? -1 : added;
+
+            if(removed[i] == false)
+            {
+                kept[added] = i;
+                remaining[added] = points[i];
+                System.arraycopy(fingerprints, i * m, shrunk, added * m, m);
+                remaining[added].setFingerprints(shrunk, added * m);
+                added += 1;
+            }
+        }
+
+        int[] labels = examplars;
+        resize(remaining, shrunk, kept);
+
+        for(int i = 0; i < size; i += 1)
+        {
+            int label = labels[kept[i]];
+            examplars[i] = (label >= 0) ? renumbered[label] : -1;
+
+            if(examplars[i] < 0)
+            {
+                points[i].examplar = null;
+                points[i].examplar_changed = true;
+            }
+        }
+
+        setPreferences();
+    }
+
+
+    /**
+     * moves the solver onto a new set of reference points, keeping the rows and columns of the kept ones
+     * @param all the new reference points
+     * @param readings their RSS readings
+     * @param kept for every kept reference point in order, its index before the change
+     */
+    private void resize(ReferencePoint[] all, double[] readings, int[] kept)
+    {
+        int n = numReferencePoints, size = all.length;
+
+        similarities = resize(similarities, n, kept, size);
+        responsibilities = resize(responsibilities, n, kept, size);
+        availablities = resize(availablities, n, kept, size);
+        positiveSums = new double[size];
+        selfResponsibilities = new double[size];
+        examplarIndices = new int[size];
+        rowChanges = new double[size];
+        examplars = Arrays.copyOf(examplars, size);
+        Arrays.fill(examplars, Math.min(n, size), size, -1);
+
+        numReferencePoints = size;
+        points = all;
+        fingerprints = readings;
+        // psi_matrix describes the points of the file only
+        psi = null;
+        data = new FingerprintSet(filename, sourceDeviceModel, building, floor, points, fingerprints, numAccessPoints, psi);
+    }
+
+
+    /**
+     * copies the rows and columns of the kept points into a size x size matrix, leaving the others at 0
+     */
+    private static double[] resize(double[] matrix, int n, int[] kept, int size)
+    {
+        double[] result = new double[size * size];
+
+        for(int i = 0; i < kept.length; i += 1)
+        {
+            int row = kept[i] * n;
+
+            // copying runs of consecutive kept columns at once
+            for(int j = 0; j < kept.length; j += 1)
+            {
+                int start = j;
+
+                while(j + 1 < kept.length && kept[j + 1] == kept[j] + 1)
+                {
+                    j += 1;
+                }
+
+                System.arraycopy(matrix, row + kept[start], result, i * size + start, j - start + 1);
+            }
+        }
+
+        return result;
+    }
+
+
+    private void checkIncremental()
+    {
+        if(similarities_psi == true)
+        {
+            throw new IllegalStateException("similarities built from the psi_matrix block cannot be updated point by point");
+        }
+    }
+
+
+    /**
+     * @return returns the sorted similarities the preference of incremental updates is taken from, which are built
+     * the first time they are needed, or null if the preference is computed some other way (asymmetric
+     * similarities, or a sampled preference)
+     */
+    private SortedSimilarities sortedSimilarities()
+    {
+        if(symmetric == false || preferenceSamples > 0)
+        {
+            sorted = null;
+        }
+
+        else if(sorted == null)
+        {
+            sorted = new SortedSimilarities(similarities, numReferencePoints);
+        }
+
+        return sorted;
+    }
+
+
+    /**
+     * just a couple of instantiations to do affinity propagation. the N x N matrices are only allocated when the ones
+     * in place are too small for the current number of reference points; otherwise the part in use is cleared and
+     * they are reused, rows still N apart, so a solver that is loaded with data set after data set stops allocating
+     * once it has seen the largest one
+     */
+    public void affinityPropagation_instantiation()
+    {
+        int size = numReferencePoints * numReferencePoints;
+
+        availablities = reuse(availablities, size);
+        responsibilities = reuse(responsibilities, size);
+        similarities = reuse(similarities, size);
+        positiveSums = new double[numReferencePoints];
+        selfResponsibilities = new double[numReferencePoints];
+        examplarIndices = new int[numReferencePoints];
+        examplars = new int[numReferencePoints];
+        rowChanges = new double[numReferencePoints];
+        Arrays.fill(examplars, -1);
+    }
+
+
+    /**
+     * @return returns matrix with its first size values cleared, or a new one if it holds fewer than size values
+     */
+    private static double[] reuse(double[] matrix, int size)
+    {
+        if(matrix == null || matrix.length < size)
+        {
+            return new double[size];
+        }
+
+        Arrays.fill(matrix, 0, size, 0.0);
+
+        return matrix;
+    }
+
+
+    /**
+     * calculates the common self similarity, or preference, given a similarity matrix as the median of other similarities
+     * @param similarity a square matrix of doubles stored row after row
+     * @param gama a double to avoid numerical oscillations
+     * @return returns the self similarity, or preference, of the input
+     */
+    private double calculatePreference(final double[] similarity, double gama)
+    {
+        final int n = numReferencePoints;
+        long size = (long) n * n - n;
+        double[] candidates;
+        int index, added = 0;
+
+        if(preferenceSamples > 0 && preferenceSamples < size)
+        {
+            return calculatePreference_sampled(similarity, gama);
+        }
+
+        if(symmetric == true)
+        {
+            return OrderStatistics.symmetricQuantile(n, slider, (i, j) -> similarity[i * n + j]) * gama;
+        }
+
+        // the index the "shifted median" would have if all off main diagonal elements were sorted
+        index = (int) Math.min(size - 1, (long) (size * slider));
+
+        // creating an array consisting of all off main diagonal elements in the similarity
+        // matrix (all similarities, not preferences)
+        candidates = new double[(int) size];
+
+        for(int i = 0; i < n; i += 1)
+        {
+            for(int j = 0; j < n; j += 1)
+            {
+                if(i != j)
+                {
+                    candidates[added] = similarity[i * n + j];
+                    added += 1;
+                }
+            }
+        }
+
+        return OrderStatistics.select(candidates, 0, candidates.length, index) * gama;
+    }
+
+
+    /**
+     * estimates the preference from a fixed number of off main diagonal elements drawn at random.
+     * by the Dvoretzky-Kiefer-Wolfowitz inequality, the returned similarity lies between the exact
+     * (slider - e) and (slider + e) quantiles with probability at least 1 - d, for e = sqrt(ln(2 / d) / (2 * samples));
+     * one million samples give e = 0.0027 for d = 1e-6. draws are seeded, so the estimate is repeatable
+     * @param similarity a square matrix of doubles stored row after row
+     * @param gama a double to avoid numerical oscillations
+     * @return returns the estimated self similarity, or preference, of the input
+     */
+    private double calculatePreference_sampled(double[] similarity, double gama)
+    {
+        int n = numReferencePoints;
+        double[] samples = new double[preferenceSamples];
+        Random random = new Random(PREFERENCE_SEED);
+        int i, j, index;
+
+        for(int added = 0; added < samples.length; added += 1)
+        {
+            i = random.nextInt(n);
+            j = random.nextInt(n - 1);
+
+            if(j >= i)
+            {
+                j += 1;
+            }
+
+            samples[added] = similarity[i * n + j];
+        }
+
+        index = Math.min(samples.length - 1, (int) (samples.length * slider));
+
+        return OrderStatistics.select(samples, 0, samples.length, index) * gama;
+    }
+
+
+    /**
+     * makes the preference an estimate from a random sample of similarities instead of the exact quantile,
+     * which keeps its cost fixed for very large data sets (see calculatePreference_sampled for the error bound)
+     * @param samples number of similarities to draw, 0 to compute the exact quantile
+     */
+    public void setPreferenceSampleSize(int samples)
+    {
+        if(samples < 0)
+        {
+            throw new IllegalArgumentException("sample size must not be negative: " + samples);
+        }
+
+        preferenceSamples = samples;
+        sorted = null;
+    }
+
+
+    /**
+     * sets the similarities matrix based on pairwise similarities of the RSS readings
+     */
+    public void setSimilarities()
+    {
+        SimilarityBuilder.build_rows(fingerprints, numReferencePoints, numAccessPoints, similarities, kernel, pool.get());
+        addTieBreakNoise(0);
+        symmetric = true;
+        similarities_psi = false;
+        sorted = null;
+        setPreferences();
+    }
+
+
+    /**
+     * sets the similarities matrix based on pairwise similarities of the columns of the psi_matrix block
+     */
+    public void setSimilarities_psi()
+    {
+        if(psi == null)
+        {
+            throw new IllegalStateException(filename + " has no psi_matrix block");
+        }
+
+        SimilarityBuilder.build_columns(psi, numReferencePoints, similarities, pool.get());
+        addTieBreakNoise(0);
+        symmetric = true;
+        similarities_psi = true;
+        sorted = null;
+        setPreferences();
+    }
+
+
+    /**
+     * lowers s(i,k) and s(k,i) of every pair i < k with k from first on by (|s| * tieBreakNoise + 100 * MIN_NORMAL)
+     * times a number in [0, 1) drawn from i and k, as apcluster.m of Frey and Dueck does with a random one
+     * @param first first reference point whose similarities are new
+     */
+    private void addTieBreakNoise(final int first)
+    {
+        final int n = numReferencePoints;
+
+        if(first == 0)
+        {
+            noisyScale = tieBreakNoise;
+        }
+
+        if(tieBreakNoise == 0)
+        {
+            return;
+        }
+
+        ParallelRange.run(pool.get(), n - first, (from, to) ->
+        {
+            for(int k = first + from; k < first + to; k += 1)
+            {
+                for(int i = 0; i < k; i += 1)
+                {
+                    double u = noise(i, k);
+
+                    similarities[i * n + k] = withNoise(similarities[i * n + k], tieBreakNoise, u);
+                    similarities[k * n + i] = withNoise(similarities[k * n + i], tieBreakNoise, u);
+                }
+            }
+        });
+    }
+
+
+    /**
+     * takes the noise addTieBreakNoise() added with noisyScale back out of every pair. the noise is a known function
+     * of s(i,k), so s(i,k) comes back exactly, unless rounding gave neighbouring similarities the same noisy value;
+     * then one of them comes back, a few ulps off at most, which scales up to 1e-9 never do in practice
+     */
+    private void removeTieBreakNoise()
+    {
+        final int n = numReferencePoints;
+        final double scale = noisyScale;
+
+        if(scale == 0)
+        {
+            return;
+        }
+
+        ParallelRange.run(pool.get(), n, (from, to) ->
+        {
+            for(int k = from; k < to; k += 1)
+            {
+                for(int i = 0; i < k; i += 1)
+                {
+                    double u = noise(i, k);
+
+                    similarities[i * n + k] = withoutNoise(similarities[i * n + k], scale, u);
+                    similarities[k * n + i] = withoutNoise(similarities[k * n + i], scale, u);
+                }
+            }
+        });
+
+        noisyScale = 0;
+    }
+
+
+    /**
+     * @return returns the similarity that noisy was before withNoise(similarity, scale, u)
+     */
+    private static double withoutNoise(double noisy, double scale, double u)
+    {
+        // s - (|s| * scale + c) * u is s * (1 - scale * u) - c * u for a positive s and s * (1 + scale * u) - c * u
+        // for a negative one; scale < 1 keeps both factors positive, so s has the sign of noisy + c * u
+        double shifted = noisy + 100 * Double.MIN_NORMAL * u;
+        double similarity = shifted / ((shifted >= 0) ? 1 - scale * u : 1 + scale * u);
+        double below = similarity, above = similarity;
+
+        // the division rounds, the similarity that gave noisy is at most a few ulps away
+        for(int step = 0; step < 4; step += 1)
+        {
+            if(withNoise(below, scale, u) == noisy)
+            {
+                return below;
+            }
+
+            if(withNoise(above, scale, u) == noisy)
+            {
+                return above;
+            }
+
+            below = Math.nextDown(below);
+            above = Math.nextUp(above);
+        }
+
+        return similarity;
+    }
+
+
+    /**
+     * @return returns the similarity lowered by (|similarity| * scale + 100 * MIN_NORMAL) * u
+     */
+    private static double withNoise(double similarity, double scale, double u)
+    {
+        return similarity - (Math.abs(similarity) * scale + 100 * Double.MIN_NORMAL) * u;
+    }
+
+
+    /**
+     * @return returns a number in [0, 1) that only depends on i and k, mixed from them like SplittableRandom does
+     */
+    private static double noise(int i, int k)
+    {
+        long z = NOISE_SEED + (((long) i << 32) | k) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+
+        return ((z ^ (z >>> 31)) >>> 11) * 0x1.0p-53;
+    }
+
+
+    /**
+     * multiplies the similarities in row i by weights[i], leaving the diagonal alone, so that a reference point that
+     * stands for weights[i] points of a larger data set pulls on its examplar as hard as all of them together would.
+     * the preference on the diagonal is not computed again, so the caller sets the one the weighted run should use,
+     * best with setPreference() before the similarities are built
+     * @param weights weight of every reference point
+     */
+    void setRowWeights(double[] weights)
+    {
+        int n = numReferencePoints;
+
+        for(int i = 0; i < n; i += 1)
+        {
+            for(int j = 0; j < n; j += 1)
+            {
+                similarities[i * n + j] *= (i == j) ? 1.0 : weights[i];
+            }
+        }
+
+        symmetric = false;
+        sorted = null;
+    }
+
+
+    /**
+     * uses the given preference instead of the one slider and gama give, for instance one shared by several solvers
+     * @param preference the self similarity of every reference point, or NaN to go back to slider and gama
+     */
+    public void setPreference(double preference)
+    {
+        fixedPreference = preference;
+        setPreferences();
+    }
+
+
+    /**
+     * inputs the preference into the main diagonal of the similarity matrix
+     */
+    private void setPreferences()
+    {
+        int n = numReferencePoints;
+        double preference = fixedPreference;
+
+        if(Double.isNaN(preference) == true)
+        {
+            preference = (sorted != null) ? sorted.quantile(slider) * gama : calculatePreference(similarities, gama);
+        }
+
+        loweredFrom = Double.NaN;
+
+        for(int i = 0; i < n; i += 1)
+        {
+            similarities[i * n + i] = preference;
+        }
+    }
+
+
+    /**
+     * calculates and sets the responsibility messages sent from reference point with indexA to every reference point
+     * @param indexA index of the reference point sending the messages
+     */
+    private void setResponsibilities_row(int indexA)
+    {
+        int n = numReferencePoints;
+        rowChanges[indexA] = MessageKernels.responsibilities(similarities, availablities, responsibilities, indexA * n, n, dampingFactor);
+    }
+
+
+    /**
+     * calculates the expression sum(max{0,r(i',k)}) over every i' not equal to k for the columns k in [from, to).
+     * rows are walked in order so the responsibility matrix is read the way it is laid out in memory
+     * @param from first column
+     * @param to one past the last column
+     */
+    private void setPositiveResponsibilitySums(int from, int to)
+    {
+        int n = numReferencePoints;
+
+        Arrays.fill(positiveSums, from, to, 0.0);
+
+        for(int i = 0; i < n; i += 1)
+        {
+            MessageKernels.positiveSums(responsibilities, i * n, i, from, to, positiveSums, selfResponsibilities);
         }
-
-        System.out.println("}");
     }
 
 
     /**
-     * sorts an array of double in ascending order in place
-     * @param array a 1D array of doubles
+     * calculates and sets the availability messages sent from every reference point to reference point with indexA.
+     * the column sums of positive responsibilities must already be up to date
+     * @param indexA index of the reference point receiving the messages
      */
-    private void selectionSort(double[] array)
+    private void setAvailabilities_row(int indexA)
     {
-        double temp;
-
-        for(int i = 0; i < array.length; i += 1)
-        {
-            for(int j = i; j < array.length; j += 1)
-            {
-                if(array[j] < array[i])
-                {
-                    temp = array[i];
-                    array[i] = array[j];
-                    array[j] = temp;
-                }
-            }
-        }
+        int n = numReferencePoints;
+        rowChanges[indexA] = MessageKernels.availabilities(responsibilities, availablities, indexA * n, indexA, n, positiveSums,
+                                      selfResponsibilities, dampingFactor);
     }
 
 
     /**
-     * opens the .csv file associated with this object
-     * @return returns a BufferedReader pointer pointing to the file
+     * updates all pairwise responsibility messages between all reference points
      */
-    private BufferedReader openFile()
+    public void updateResponsibilities()
     {
-        try
+        ParallelRange.run(pool.get(), numReferencePoints, (from, to) ->
         {
-            FileReader fp = new FileReader(filename);
-            BufferedReader toRead = new BufferedReader(fp);
-            return toRead;
-        }
+            for(int i = from; i < to; i += 1)
+            {
+                setResponsibilities_row(i);
+            }
+        });
 
-        catch(IOException e)
-        {
-            return null;
-        }
+        maxMessageChange = Math.max(maxMessageChange, MessageKernels.max(rowChanges));
     }
 
 
     /**
-     * reads the .csv file associated with this object and stores its information
+     * updates all pairwise availability messages between all reference points
      */
-    public void setPoints()
+    public void updateAvailabilities()
     {
-        BufferedReader toRead = openFile();
-        String line;
-        String[] parts;
-        ReferencePoint newPoint = null;
+        ParallelRange.run(pool.get(), numReferencePoints, this::setPositiveResponsibilitySums);
 
-        double x, y;
-        char orientation;
-        int AP_added = 0, reference_added = 0;
-        boolean orientation_active = false, RSS_active = false;
-
-        if(toRead != null)
+        ParallelRange.run(pool.get(), numReferencePoints, (from, to) ->
         {
-            try
+            for(int i = from; i < to; i += 1)
             {
-                line = toRead.readLine();
+                setAvailabilities_row(i);
+            }
+        });
 
-                while(line != null)
-                {
-                    parts = line.split(",");
+        maxMessageChange = Math.max(maxMessageChange, MessageKernels.max(rowChanges));
+    }
 
-                    if(parts.length == 1)
-                    {
-                        if(parts[0].equals("end_of_point"))
-                        {
-                            orientation_active = false;
-                            RSS_active = false;
-                        }
-
-                        if(RSS_active == true)
-                        {
-                            newPoint.RSS.add(Double.parseDouble(parts[0]));
-                        }
-                    } // end of IF
-
-                    else if(parts.length == 2)
-                    {
-                        if(parts[0].equals("source_device_model"))
-                        {
-                            sourceDeviceModel = parts[1];
-                        }
-
-                        else if(parts[0].equals("building"))
-                        {
-                            building = parts[1];
-                        }
-
-                        else if(parts[0].equals("floor"))
-                        {
-                            floor = Integer.parseInt(parts[1]);
-                        }
-
-                        else if(parts[0].equals("number_of_points"))
-                        {
-                            numReferencePoints = Integer.parseInt(parts[1]);
-                            points = new ReferencePoint[numReferencePoints];
-                        }
-
-                        else if(parts[0].equals("MACListLength"))
-                        {
-                            numAccessPoints = Integer.parseInt(parts[1]);
-                        }
-                    } // end of ELSE IF
-
-                    else if(parts.length == 3)
-                    {
-                        if(parts[0].equals("Coordinate"))
-                        {
-                            x = Double.parseDouble(parts[1]);
-                            y = Double.parseDouble(parts[2]);
-                            newPoint = new ReferencePoint(x, y);
-                            points[reference_added] = newPoint;
-                            reference_added += 1;
-                        }
-
-                        else if(parts[0].equals("Labeled Point"))
-                        {
-                            orientation_active = true;
-                        }
-
-                        else if(orientation_active == true)
-                        {
-                            orientation = parts[0].charAt(0);
-                            newPoint.orientation = orientation;
-                            RSS_active = true;
-                        }
-
-                        else if(parts[0].equals("psi_matrix"))
-                        {
-                            int row = Integer.parseInt(parts[1]);
-                            int column = Integer.parseInt(parts[2]);
-                            psi = new double[row][column];
-                        }
-                    } // end of ELSE IF
-
-                    else if(parts.length == numReferencePoints)
-                    {
-                        for(int i = 0; i < parts.length; i += 1)
-                        {
-                            psi[AP_added][i] = Double.parseDouble(parts[i]);
-                        }
 
-                        AP_added += 1;
-                    } // end of ELSE IF
+    /**
+     * used to update the combined matrix as the sum of availability and responsibility. examplars are now found from
+     * a(i,k) + r(i,k) as the rows are scanned, so there is no combined matrix to update
+     * @deprecated does nothing, findExamplars() no longer needs it
+     */
+    @Deprecated
+    public void updateCombined()
+    {
+    }
 
-                    line = toRead.readLine();
-                }
-            } // end of TRY
 
-            catch (IOException e)
-            {
-                e.printStackTrace();
-            }
-        } // end of IF
+    /**
+     * finds out and sets the number of cluster in the given orientation
+     */
+    public void setNumClusters()
+    {
+        numClusters = getClusterIndex().getNumClusters();
     }
 
 
     /**
-     * just a couple of instantiations to do affinity propagation
+     * builds the clusters from the examplar labels in one pass
+     * @return returns the examplar, size and members of every cluster
      */
-    public void affinityPropagation_instantiation()
+    public ClusterIndex getClusterIndex()
     {
-        availablities = new double[numReferencePoints][numReferencePoints];
-        responsibilities = new double[numReferencePoints][numReferencePoints];
-        combined = new double[numReferencePoints][numReferencePoints];
-        similarities = new double[numReferencePoints][numReferencePoints];
+        return new ClusterIndex(examplars);
     }
 
 
     /**
-     * calculates how similar reference points a and b are based on their RSS readings
-     * @param a a reference point
-     * @param b a reference point
-     * @return returns a double indicating how similar a and b are
+     * finds the reference point that best represents the current reference point
+     * @param point_index index of the reference point in the oriented points array list that we want to find the examplar for
      */
-    private double calculateSimilarity(ReferencePoint a, ReferencePoint b)
+    public void findExamplar_point(int point_index)
     {
-        double similarity = 0.0;
+        setExamplar(point_index, findExamplar_index(point_index));
+    }
 
-        for(int i = 0; i < a.RSS.size(); i += 1)
-        {
-            similarity -= Math.pow(a.RSS.get(i) - b.RSS.get(i), 2);
-        }
 
-        return similarity;
+    /**
+     * finds the index of the reference point that best represents the current reference point, adding up
+     * a(i,k) + r(i,k) while the row is scanned
+     * @param point_index index of the reference point
+     * @return returns the index of the examplar, or -1 if no a(i,k) + r(i,k) of the row beats -Double.MAX_VALUE
+     */
+    private int findExamplar_index(int point_index)
+    {
+        int n = numReferencePoints;
+
+        return MessageKernels.examplar(availablities, responsibilities, point_index * n, n);
     }
 
 
     /**
-     * calculates the common self similarity, or preference, given a similarity matrix as the median of other similarities
-     * @param similarity a 2D array of doubles
-     * @param gama a double to avoid numerical oscillations
-     * @return returns the self similarity, or preference, of the input
+     * records the examplar found for a reference point and keeps track of who is examplar who is not
+     * @param point_index index of the reference point
+     * @param examplar_index index of its examplar, -1 keeps the previous examplar
      */
-    private double calculatePreference(double[][] similarity, double gama)
+    private void setExamplar(int point_index, int examplar_index)
     {
-        int size = (int) (Math.pow(similarity.length, 2) - similarity.length);
-        double[] allSimilarities = new double[size];
-        int index, added = 0;
-        double preference;
+        ReferencePoint point = points[point_index];
+        ReferencePoint prev_examplar = point.examplar;
 
-        // creating an array consisting of all off main diagonal elements in the similarity
-        // matrix (all similarities, not preferences)
-        for(int i = 0; i < similarity.length; i += 1)
+        if(examplar_index >= 0)
         {
-            for(int j = 0; j < similarity[i].length; j += 1)
-            {
-                if(i != j)
-                {
-                    allSimilarities[added] = similarity[i][j];
-                    added += 1;
-                }
-            }
+            point.examplar = points[examplar_index];
         }
 
-        // sorting similarities from smallest to largest
-        selectionSort(allSimilarities);
+        // checking whether or not the examplar has changed, by index since two points can hold the same readings
+        point.examplar_changed = examplar_index >= 0 && examplar_index != examplars[point_index];
+
+        if(point.examplar_changed == true)
+        {
+            examplars[point_index] = examplar_index;
+        }
 
-        // finding the "shifted median"
-        index = (int) (allSimilarities.length * slider);
-        preference = allSimilarities[index] * gama;
+        // updating who is examplar who is not
+        point.examplar.cluster_head = true;
 
-        return preference;
+        if(prev_examplar != null && point.examplar.equals(prev_examplar) == false)
+        {
+            prev_examplar.cluster_head = false;
+        }
     }
 
 
     /**
-     * sets the similarities matrix based on pairwise similarities
+     * finds the examplars of all reference points in the given orientation
      */
-    public void setSimilarities()
+    public void findExamplars()
     {
-        ReferencePoint a, b;
-        double similarity, preference;
-
-        for(int i = 0; i < points.length; i += 1)
+        // the row scans run in parallel, the bookkeeping on the shared reference points does not
+        ParallelRange.run(pool.get(), numReferencePoints, (from, to) ->
         {
-            for(int j = 0; j < points.length; j += 1)
+            for(int i = from; i < to; i += 1)
             {
-                if(i != j)
-                {
-                    a = points[i];
-                    b = points[j];
-                    similarity = calculateSimilarity(a, b);
-                    similarities[i][j] = similarity;
-                }
+                examplarIndices[i] = findExamplar_index(i);
             }
-        }
+        });
 
-        // inputting preferences into the similarity matrix
-        preference = calculatePreference(similarities, gama);
+        labelChanges = 0;
 
         for(int i = 0; i < points.length; i += 1)
         {
-            similarities[i][i] = preference;
+            setExamplar(i, examplarIndices[i]);
+            labelChanges += points[i].examplar_changed ? 1 : 0;
         }
     }
 
 
     /**
-     * calculates and sets the responsibility message sent from reference point with indexA to reference point with indexB
-     * @param indexA index of the first reference point
-     * @param indexB index of the second reference point
+     * determines whether or not the clustering process should be terminated
+     * @return returns true if local examplars have not changed from the previous iteration of the algorithm; false otherwise
      */
-    private void setResponsibility(int indexA , int indexB)
+    public boolean terminate()
     {
-        double responsibility, prev = responsibilities[indexA][indexB];
-        Double curr, max = -1.0 * Double.MAX_VALUE;
-        int i;
+        boolean terminate = true;
 
-        for(i = 0; i < points.length; i += 1)
+        for(int i = 0; i < points.length; i += 1)
         {
-            if(i != indexB)
+            if(points[i].examplar_changed == true)
             {
-                curr = availablities[indexA][i] + similarities[indexA][i];
-
-                if(curr > max)
-                {
-                    max = curr;
-                }
+                terminate = false;
+                break;
             }
         }
 
-        responsibility = similarities[indexA][indexB] - max;
-        responsibility = dampingFactor * prev + (1 - dampingFactor) * responsibility;
-        responsibilities[indexA][indexB] = responsibility;
+        return terminate;
     }
 
 
     /**
-     * calculates the sets the availability message sent from reference point with indexB to reference point with indexA
-     * @param indexA first refernece point
-     * @param indexB second reference point
+     * does the actual clustering, until the convergence policy stops it (see getStopReason()). the run goes on
+     * from the current messages, so a second call, or a call after setState(), resumes instead of starting over;
+     * the iteration cap of the policy applies to each call
+     * @return returns the examplars and clusters found, with the statistics of the run
      */
-    private void setAvailability(int indexA, int indexB)
+    public ClusteringResult apCluster()
     {
-        double availability, curr, prev = availablities[indexA][indexB], sum = 0.0;
-        int i;
+        int unchanged = 0, start = iterations;
+        stopReason = null;
 
-        // calculating the expression: sum(max{0,r(i',k)}) where i' is not equal to i and k
-        for(i = 0; i < responsibilities.length; i += 1)
+        while(stopReason == null)
         {
-            if(i != indexA && i != indexB)
+            iterations += 1;
+            maxMessageChange = 0.0;
+
+            IterationEvent event = IterationEvent.start();
+
+            if(event == null && listeners.isEmpty() == true && counting == false)
             {
-                curr = responsibilities[i][indexB];
+                updateResponsibilities();
+                updateAvailabilities();
+                findExamplars();
+            }
 
-                if(curr < 0)
-                {
-                    curr = 0.0;
-                }
+            else
+            {
+                iterate_instrumented(event);
+            }
 
-                sum += curr;
+            if(damping.isAdaptive() == true)
+            {
+                adaptDamping();
+            }
+
+            if(terminate() == true)
+            {
+                unchanged += 1;
             }
-        }
 
-        // this will be the final availability if reference points a and b are the same
-        availability = sum;
+            else
+            {
+                unchanged = 0;
+            }
 
-        if(indexA != indexB)
-        {
-            availability += responsibilities[indexB][indexB];
+            stopReason = convergence.check(iterations - start, unchanged, maxMessageChange);
 
-            if(availability > 0)
+            if(checkpointFile != null && (stopReason != null || (iterations - start) % checkpointInterval == 0))
             {
-                availability = 0.0;
+                writeCheckpoint();
             }
         }
 
-        // to avoid numerical oscillations
-        availability = dampingFactor * prev + (1 - dampingFactor) * availability;
-        availablities[indexA][indexB] = availability;
+        return getResult();
     }
 
 
     /**
-     * updates all pairwise responsibility messages between all reference points
+     * counts the points whose evidence r(k,k) + a(k,k) turned back in the iteration that has just run, tells from
+     * them and the label changes whether it oscillated or was calm, and lets the damping policy act on the streaks
      */
-    public void updateResponsibilities()
+    private void adaptDamping()
     {
-        for(int i = 0; i < points.length; i += 1)
+        int n = numReferencePoints, window = damping.getWindow(), reversals = 0;
+        DampingPolicy.Action action;
+
+        if(evidence == null || evidence.length != n)
+        {
+            evidence = new boolean[n];
+            lastFlip = SolverState.noFlips(n);
+            previousFlip = SolverState.noFlips(n);
+        }
+
+        for(int k = 0; k < n; k += 1)
         {
-            for(int j = 0; j < points.length; j += 1)
+            boolean positive = responsibilities[k * n + k] + availablities[k * n + k] > 0;
+
+            if(positive != evidence[k])
             {
-                setResponsibility(i, j);
+                evidence[k] = positive;
+                reversals += (iterations - previousFlip[k] <= window) ? 1 : 0;
+                previousFlip[k] = lastFlip[k];
+                lastFlip[k] = iterations;
             }
         }
+
+        oscillating = (labelChanges > 0 && reversals > 0) ? oscillating + 1 : 0;
+        calm = (reversals == 0) ? calm + 1 : 0;
+        action = damping.check(dampingFactor, oscillating, calm);
+
+        if(action == DampingPolicy.Action.RAISE_DAMPING)
+        {
+            dampingFactor = damping.raise(dampingFactor);
+        }
+
+        else if(action == DampingPolicy.Action.LOWER_DAMPING)
+        {
+            dampingFactor = damping.lower(dampingFactor);
+        }
+
+        else if(action == DampingPolicy.Action.LOWER_PREFERENCE)
+        {
+            lowerPreference();
+        }
+
+        if(action != DampingPolicy.Action.NONE)
+        {
+            oscillating = 0;
+            calm = 0;
+        }
     }
 
 
     /**
-     * updates all pairwise availability messages between all reference points
+     * lowers the preference on the main diagonal by the preference step of the damping policy; clearRun() puts it back
      */
-    public void updateAvailabilities()
+    private void lowerPreference()
     {
-        for(int i = 0; i < points.length; i += 1)
+        int n = numReferencePoints;
+        double preference = similarities[0];
+
+        if(Double.isNaN(loweredFrom) == true)
         {
-            for(int j = 0; j < points.length; j += 1)
-            {
-                setAvailability(i, j);
-            }
+            loweredFrom = preference;
+        }
+
+        preference -= Math.abs(preference) * damping.getPreferenceStep();
+
+        for(int i = 0; i < n; i += 1)
+        {
+            similarities[i * n + i] = preference;
         }
     }
 
 
     /**
-     * updates the combined matrix as the sum of availability and responsibility
+     * runs one iteration timing every phase, then reports it to the listeners, the counters and the flight recording
+     * @param event the started IterationEvent, or null if no recording takes it
      */
-    public void updateCombined()
+    private void iterate_instrumented(IterationEvent event)
     {
-        double val;
+        long start = System.nanoTime();
+        updateResponsibilities();
+        long responsibility = System.nanoTime();
+        updateAvailabilities();
+        long availability = System.nanoTime();
+        findExamplars();
+        long examplar = System.nanoTime();
+
+        IterationStats stats = new IterationStats(iterations, responsibility - start, availability - responsibility,
+                                                  examplar - availability, countExamplars(), labelChanges,
+                                                  maxMessageChange, netSimilarity());
+
+        for(int l = 0; l < listeners.size(); l += 1)
+        {
+            listeners.get(l).iterationDone(stats);
+        }
+
+        counters = counters.plus(stats);
 
-        for(int i = 0; i < combined.length; i += 1)
+        if(event != null)
         {
-            for(int j = 0; j < combined[i].length; j += 1)
-            {
-                val = availablities[i][j] + responsibilities[i][j];
-                combined[i][j] = val;
-            }
+            event.commit(stats, numReferencePoints);
         }
     }
 
 
     /**
-     * finds out and sets the number of cluster in the given orientation
+     * @return returns the number of distinct examplars among the current labels
      */
-    public void setNumClusters()
+    private int countExamplars()
     {
-        ArrayList<ArrayList<ReferencePoint>> clusters = new ArrayList<ArrayList<ReferencePoint>>();
-        ArrayList<ReferencePoint> cluster;
+        int count = 0;
 
-        for(ReferencePoint point : points)
+        if(examplarSeen == null || examplarSeen.length != numReferencePoints)
         {
-            cluster = getCluster(point);
+            examplarSeen = new boolean[numReferencePoints];
+        }
+
+        Arrays.fill(examplarSeen, false);
 
-            // adding the new cluster to the group of cluster + writing the cluster to the file
-            if(clusters.contains(cluster) == false)
+        for(int examplar : examplars)
+        {
+            if(examplar >= 0 && examplarSeen[examplar] == false)
             {
-                clusters.add(cluster);
+                examplarSeen[examplar] = true;
+                count += 1;
             }
         }
 
-        numClusters = clusters.size();
+        return count;
     }
 
 
     /**
-     * finds the reference point that best represents the current reference point
-     * @param point_index index of the reference point in the oriented points array list that we want to find the examplar for
+     * @return returns the sum of s(i,e(i)) over every reference point i with an examplar e(i); the diagonal holds the
+     * preference
      */
-    public void findExamplar_point(int point_index)
+    private double netSimilarity()
     {
-        Double max = -1.0 * Double.MAX_VALUE;
-        double curr;
-        ReferencePoint point = points[point_index];
-        ReferencePoint prev_examplar = point.examplar;
+        int n = numReferencePoints;
+        double netSimilarity = 0.0;
 
-        // looping though all reference points
-        for(int k = 0; k < points.length; k += 1)
+        for(int i = 0; i < n; i += 1)
         {
-            curr = combined[point_index][k];
-
-            if(curr > max)
-            {
-                max = curr;
-                point.examplar = points[k];
-            }
+            netSimilarity += (examplars[i] >= 0) ? similarities[i * n + examplars[i]] : 0.0;
         }
 
-        // checking whether or not the examplar has changed
-        if(point.examplar.equals(prev_examplar) == true)
-        {
-            point.examplar_changed = false;
-        }
+        return netSimilarity;
+    }
 
-        // updating who is examplar who is not
-        point.examplar.cluster_head = true;
 
-        if(prev_examplar != null && point.examplar.equals(prev_examplar) == false)
-        {
-            prev_examplar.cluster_head = false;
-        }
+    /**
+     * collects the outcome of the last apCluster() into an immutable result
+     * @return returns the examplars and clusters found, with the statistics of the run
+     */
+    public ClusteringResult getResult()
+    {
+        int n = numReferencePoints;
+
+        return new ClusteringResult(data, getClusterIndex(), (n > 0) ? similarities[0] : 0.0, netSimilarity(), iterations,
+                                    stopReason, maxMessageChange);
     }
 
 
     /**
-     * finds the examplars of all reference points in the given orientation
+     * @param copy true to copy the arrays, false to hand the live ones to a snapshot that is written and dropped
+     * @return returns the messages, examplars and damping state as a SolverState
      */
-    public void findExamplars()
+    private SolverState snapshot(boolean copy)
     {
-        for(int i = 0; i < points.length; i += 1)
+        int n = numReferencePoints, size = n * n;
+        boolean fresh = evidence == null || evidence.length != n;
+
+        // before the first adaptDamping() the damping state is that of a fresh run
+        boolean[] signs = (fresh == true) ? new boolean[n] : evidence;
+        int[] last = (fresh == true) ? SolverState.noFlips(n) : lastFlip;
+        int[] previous = (fresh == true) ? SolverState.noFlips(n) : previousFlip;
+        double loweredTo = (Double.isNaN(loweredFrom) == true) ? Double.NaN : similarities[0];
+
+        if(copy == true)
         {
-            findExamplar_point(i);
+            return new SolverState(n, iterations, examplars.clone(), Arrays.copyOf(responsibilities, size),
+                                   Arrays.copyOf(availablities, size), dampingFactor, loweredFrom, loweredTo, oscillating,
+                                   calm, signs.clone(), last.clone(), previous.clone());
         }
+
+        return new SolverState(n, iterations, examplars, responsibilities, availablities, dampingFactor, loweredFrom,
+                               loweredTo, oscillating, calm, signs, last, previous);
     }
 
 
-    /**
-     * determines whether or not the clustering process should be terminated
-     * @return returns true if local examplars have not changed from the previous iteration of the algorithm; false otherwise
-     */
-    public boolean terminate()
+    private void writeCheckpoint()
     {
-        boolean terminate = true;
-
-        for(int i = 0; i < points.length; i += 1)
+        try
         {
-            if(points[i].examplar_changed == true)
-            {
-                terminate = false;
-                break;
-            }
+            // written straight from the live arrays, apCluster() does not touch them while it writes
+            snapshot(false).write(checkpointFile);
         }
 
-        return terminate;
+        catch(IOException e)
+        {
+            throw new UncheckedIOException("could not write checkpoint " + checkpointFile, e);
+        }
     }
 
 
     /**
-     * does the actual clustering
+     * finds the cluster to which the passed reference point belongs to
+     * @param point a reference point
+     * @return returns an array list with the cluster head at its first place followed by other members of the cluster
      */
-    public void apCluster()
+    public ArrayList<ReferencePoint> getCluster(ReferencePoint point)
     {
-        int unchanged = 0;
+        ClusterIndex index = getClusterIndex();
 
-        while(unchanged < 10)
+        for(int i = 0; i < points.length; i += 1)
         {
-            updateResponsibilities();
-            updateAvailabilities();
-            updateCombined();
-            findExamplars();
-
-            if(terminate() == true)
-            {
-                unchanged += 1;
-            }
-
-            else
+            if(points[i] == point)
             {
-                unchanged = 0;
+                return getCluster(index, index.getCluster(i));
             }
         }
+
+        throw new IllegalArgumentException(point + " is not a reference point of this data set");
     }
 
 
     /**
-     * finds the cluster to which the passed reference point belongs to
-     * @param point a reference point
+     * lists a cluster the way getCluster(point) does
+     * @param index the clusters
+     * @param cluster number of the cluster
      * @return returns an array list with the cluster head at its first place followed by other members of the cluster
      */
-    public ArrayList<ReferencePoint> getCluster(ReferencePoint point)
+    private ArrayList<ReferencePoint> getCluster(ClusterIndex index, int cluster)
     {
-        ArrayList<ReferencePoint> cluster = new ArrayList<ReferencePoint>();
+        ArrayList<ReferencePoint> list = new ArrayList<ReferencePoint>(index.getSize(cluster) + 1);
 
-        ReferencePoint cluster_head = point.examplar;
-        cluster.add(cluster_head);
+        list.add(points[index.getExamplar(cluster)]);
 
-        for(ReferencePoint each_point : points)
+        for(int i = 0; i < index.getSize(cluster); i += 1)
         {
-            if(each_point.examplar.equals(cluster_head) == true)
-            {
-                cluster.add(each_point);
-            }
+            list.add(points[index.getMember(cluster, i)]);
         }
 
-        return cluster;
+        return list;
+    }
+
+
+    /**
+     * makes writeFile() and writeFile_matlab() put their files into a directory of this solver's own, numbered from 0,
+     * instead of numbering them across all solvers in the working directory; solvers on different threads then
+     * never write to the same file
+     * @param directory an existing directory, or null to go back to the shared numbering
+     */
+    public void setOutputDirectory(String directory)
+    {
+        outputDirectory = directory;
+        outputNumber.set(0);
+        outputNumber_matlab.set(0);
     }
 
 
@@ -669,10 +1785,12 @@ public class AffinityPropagation
      */
     public String createFileName()
     {
-        String toReturn = "cluster" + fileNumber + ".csv";
-        fileNumber += 1;
+        if(outputDirectory != null)
+        {
+            return new File(outputDirectory, "cluster" + outputNumber.getAndIncrement() + ".csv").getPath();
+        }
 
-        return toReturn;
+        return "cluster" + fileNumber.getAndIncrement() + ".csv";
     }
 
 
@@ -710,9 +1828,9 @@ public class AffinityPropagation
             pw.append("Coordinate," + point.x + "," + point.y + "\n");
             pw.append(point.orientation + "\n");
 
-            for(int i = 0; i < point.RSS.size(); i += 1)
+            for(int i = 0; i < point.getNumRSS(); i += 1)
             {
-                pw.append(point.RSS.get(i) + "," + "\n");
+                pw.append(point.getRSS(i) + "," + "\n");
             }
 
             pw.append("end_of_point" + "\n");
@@ -725,43 +1843,53 @@ public class AffinityPropagation
      */
     public void writeFile()
     {
-        ArrayList<ArrayList<ReferencePoint>> clusters = new ArrayList<ArrayList<ReferencePoint>>();
+        ClusterIndex index = getClusterIndex();
         ArrayList<ReferencePoint> cluster;
         String filename;
         PrintWriter pw;
 
-        for(ReferencePoint point : points)
+        for(int c = 0; c < index.getNumClusters(); c += 1)
         {
-            cluster = getCluster(point);
+            cluster = getCluster(index, c);
 
-            // adding the new cluster to the group of cluster + writing the cluster to the file
-            if(clusters.contains(cluster) == false)
-            {
-                clusters.add(cluster);
-                filename = createFileName();
-                pw = createFile(filename);
+            // writing the cluster to its own file
+            filename = createFileName();
+            pw = createFile(filename);
 
-                if(pw != null)
-                {
-                    pw.append("source_device_model," + sourceDeviceModel + "\n");
-                    pw.append("building," + building + "\n");
-                    pw.append("floor," + floor + "\n");
-                    pw.append("number_of_points," + cluster.size() + "\n");
+            if(pw != null)
+            {
+                pw.append("source_device_model," + sourceDeviceModel + "\n");
+                pw.append("building," + building + "\n");
+                pw.append("floor," + floor + "\n");
+                pw.append("number_of_points," + cluster.size() + "\n");
 
-                    writeCluster(pw, cluster);
-                    pw.close();
-                }
+                writeCluster(pw, cluster);
+                pw.close();
             }
         }
     }
 
 
+    /**
+     * writes the data set and its similarity matrix to a binary survey file, so that clustering it
+     * again can skip the similarity computation. the tie-break noise scale of the matrix goes into the header
+     * @param filename name of the file
+     * @throws IOException if the file cannot be written
+     */
+    public void writeFile_binary(String filename) throws IOException
+    {
+        FingerprintFile.write(data, similarities, noisyScale, filename);
+    }
+
+
     public String createFilename_matlab()
     {
-        String toReturn = "cluster_matlab" + filenumber_matlab + ".txt";
-        filenumber_matlab += 1;
+        if(outputDirectory != null)
+        {
+            return new File(outputDirectory, "cluster_matlab" + outputNumber_matlab.getAndIncrement() + ".txt").getPath();
+        }
 
-        return toReturn;
+        return "cluster_matlab" + filenumber_matlab.getAndIncrement() + ".txt";
     }
 
 
@@ -776,27 +1904,23 @@ public class AffinityPropagation
 
     public void writeFile_matlab()
     {
-        ArrayList<ArrayList<ReferencePoint>> clusters = new ArrayList<ArrayList<ReferencePoint>>();
+        ClusterIndex index = getClusterIndex();
         ArrayList<ReferencePoint> cluster;
         String filename;
         PrintWriter pw;
 
-        for(ReferencePoint point : points)
+        for(int c = 0; c < index.getNumClusters(); c += 1)
         {
-            cluster = getCluster(point);
+            cluster = getCluster(index, c);
 
-            // adding the new cluster to the group of cluster + writing the cluster to the file
-            if(clusters.contains(cluster) == false)
-            {
-                clusters.add(cluster);
-                filename = createFilename_matlab();
-                pw = createFile(filename);
+            // writing the cluster to its own file
+            filename = createFilename_matlab();
+            pw = createFile(filename);
 
-                if(pw != null)
-                {
-                    writeCluster_matlab(pw, cluster);
-                    pw.close();
-                }
+            if(pw != null)
+            {
+                writeCluster_matlab(pw, cluster);
+                pw.close();
             }
         }
     }
@@ -0,0 +1,542 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+
+
+/*
+Clusters many survey files, for instance every building and floor of a job, in three
+stages that run side by side: parsing (FingerprintSet.read(), what setPoints() does),
+clustering (apCluster()) and writing (ClusteringResult.write()). Every stage has threads
+of its own and hands its work to the next through a bounded queue, so the clustering
+threads keep the CPU busy while files are read and written around them. A data set is
+held from when it is read until its output is written, so at most two queues' capacity
+plus one per thread are in memory at a time. Every clustering thread keeps one
+AffinityPropagation and loads the data sets into it (see AffinityPropagation.load()), so
+its N x N matrices are allocated once for the largest survey it gets.
+
+Every input gets an output file of its own, named after its path under the input
+directory, or after its file name when a list of files is given; outputs of earlier runs
+found in the input directory are skipped. A file that cannot be read, clustered or
+written, even for lack of memory, is reported in its result and the other files go on.
+ */
+public class BatchClusterer
+{
+    /*
+    What the batch did with one input file. Only a summary of the clustering is kept, the
+    data set and its clusters are let go once the output is written.
+     */
+    public static class Result
+    {
+        private final Path input, output;
+        private int numClusters, iterations;
+        private ConvergencePolicy.StopReason stopReason;
+        private Throwable error;
+
+        Result(Path input, Path output)
+        {
+            this.input = input;
+            this.output = output;
+        }
+
+        void summarize(ClusteringResult clustering)
+        {
+            numClusters = clustering.getNumClusters();
+            iterations = clustering.getIterations();
+            stopReason = clustering.getStopReason();
+        }
+
+        public Path getInput()
+        {
+            return input;
+        }
+
+        public Path getOutput()
+        {
+            return output;
+        }
+
+        public int getNumClusters()
+        {
+            return numClusters;
+        }
+
+        public int getIterations()
+        {
+            return iterations;
+        }
+
+        public ConvergencePolicy.StopReason getStopReason()
+        {
+            return stopReason;
+        }
+
+        /**
+         * @return returns why the input failed, or null if its output was written
+         */
+        public Throwable getError()
+        {
+            return error;
+        }
+
+        public boolean succeeded()
+        {
+            return error == null;
+        }
+
+        @Override
+        public String toString()
+        {
+            if(error != null)
+            {
+                return input + " failed: " + error;
+            }
+
+            return input + " -> " + output + ": " + numClusters + " clusters, " + iterations + " iterations, " + stopReason;
+        }
+    }
+
+
+    /*
+    An input on its way through the stages; a job without a result tells a thread to stop.
+     */
+    private static class Job
+    {
+        static final Job END = new Job(null);
+
+        final Result result;
+        FingerprintSet data;
+        ClusteringResult clustering;
+
+        Job(Result result)
+        {
+            this.result = result;
+        }
+    }
+
+
+    private final double slider;
+    private ConvergencePolicy convergence = new ConvergencePolicy();
+    private int parseThreads = 1, clusterThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private int writeThreads = 1;
+    private int queueCapacity = 0;
+    private String extension = ".clusters.csv";
+
+
+    /**
+     * Constructor of the BatchClusterer class.
+     * @param slider double value between 0-1, used for every input
+     */
+    public BatchClusterer(double slider)
+    {
+        this.slider = slider;
+    }
+
+
+    /**
+     * sets how many threads every stage has. clustering is the stage that needs the CPU; parsing and writing mostly
+     * wait on the disk, and by default get one thread each next to one clustering thread per remaining core
+     * @param parsers threads reading the input files
+     * @param clusterers threads clustering, each with a solver of its own
+     * @param writers threads writing the outputs
+     */
+    public void setThreads(int parsers, int clusterers, int writers)
+    {
+        if(parsers < 1 || clusterers < 1 || writers < 1)
+        {
+            throw new IllegalArgumentException("every stage needs at least one thread: " + parsers + ", " + clusterers
+                                               + ", " + writers);
+        }
+
+        parseThreads = parsers;
+        clusterThreads = clusterers;
+        writeThreads = writers;
+    }
+
+
+    /**
+     * sets how many inputs may wait between two stages
+     * @param capacity size of each queue, 0 for the number of clustering threads
+     */
+    public void setQueueCapacity(int capacity)
+    {
+        if(capacity < 0)
+        {
+            throw new IllegalArgumentException("capacity must not be negative: " + capacity);
+        }
+
+        queueCapacity = capacity;
+    }
+
+
+    /**
+     * sets when the clustering of every input stops, see ConvergencePolicy
+     * @param convergence the policy given to every solver
+     */
+    public void setConvergencePolicy(ConvergencePolicy convergence)
+    {
+        this.convergence = convergence;
+    }
+
+
+    /**
+     * makes the outputs gzip compressed, see ClusteringResult.write(String)
+     * @param compress true to write .clusters.csv.gz files instead of .clusters.csv
+     */
+    public void setCompress(boolean compress)
+    {
+        extension = (compress == true) ? ".clusters.csv.gz" : ".clusters.csv";
+    }
+
+
+    /**
+     * clusters every .csv file in a directory and its subdirectories, or a single file. the outputs keep the
+     * subdirectories of the inputs, e.g. dir/building1/floor2.csv is written to output/building1/floor2.clusters.csv
+     * @param input a directory or a file
+     * @param output directory the outputs are written to, created if missing
+     * @return returns what happened to every input, in order of path
+     * @throws IOException if the input directory cannot be listed
+     * @throws InterruptedException if the calling thread is interrupted, which stops the batch
+     */
+    public List<Result> run(Path input, Path output) throws IOException, InterruptedException
+    {
+        List<Result> results = new ArrayList<Result>();
+
+        if(Files.isDirectory(input) == false)
+        {
+            return run(Collections.singletonList(input), output);
+        }
+
+        try(Stream<Path> files = Files.walk(input))
+        {
+            for(Path file : files.filter(f -> Files.isRegularFile(f) && f.toString().endsWith(".csv")
+                                              && isOutput(f, input, output) == false)
+                                 .sorted().collect(Collectors.toList()))
+            {
+                results.add(new Result(file, output.resolve(outputName(input.relativize(file)))));
+            }
+        }
+
+        return run(results);
+    }
+
+
+    /**
+     * clusters every file of a list, each written to the output directory under its own file name
+     * @param inputs files to cluster
+     * @param output directory the outputs are written to, created if missing
+     * @return returns what happened to every input, in the order of the list
+     * @throws IllegalArgumentException if two inputs have the same file name, so their outputs would collide
+     * @throws InterruptedException if the calling thread is interrupted, which stops the batch
+     */
+    public List<Result> run(List<Path> inputs, Path output) throws InterruptedException
+    {
+        List<Result> results = new ArrayList<Result>();
+        Set<Path> outputs = new HashSet<Path>();
+
+        for(Path file : inputs)
+        {
+            Path target = output.resolve(outputName(file.getFileName()));
+
+            if(outputs.add(target) == false)
+            {
+                throw new IllegalArgumentException("two inputs would both be written to " + target);
+            }
+
+            results.add(new Result(file, target));
+        }
+
+        return run(results);
+    }
+
+
+    /**
+     * @return returns true if a file found under the input directory was written by a batch: it has the name of an
+     * output, or it lies in the output directory (unless that is the input directory itself)
+     */
+    private static boolean isOutput(Path file, Path input, Path output)
+    {
+        Path in = input.toAbsolutePath().normalize(), out = output.toAbsolutePath().normalize();
+
+        if(file.getFileName().toString().endsWith(".clusters.csv") == true)
+        {
+            return true;
+        }
+
+        return out.equals(in) == false && file.toAbsolutePath().normalize().startsWith(out) == true;
+    }
+
+
+    /**
+     * @return returns the name of the output of an input, with .csv replaced by the output extension
+     */
+    private Path outputName(Path input)
+    {
+        String name = input.getFileName().toString();
+        name = (name.endsWith(".csv") == true) ? name.substring(0, name.length() - 4) : name;
+
+        return input.resolveSibling(name + extension);
+    }
+
+
+    /**
+     * starts the threads of the three stages, feeds them the inputs and waits for the last output
+     */
+    private List<Result> run(List<Result> results) throws InterruptedException
+    {
+        int capacity = (queueCapacity == 0) ? clusterThreads : queueCapacity;
+        BlockingQueue<Job> parsed = new ArrayBlockingQueue<Job>(capacity);
+        BlockingQueue<Job> clustered = new ArrayBlockingQueue<Job>(capacity);
+        Iterator<Result> inputs = results.iterator();
+        AtomicInteger parsing = new AtomicInteger(parseThreads), clustering = new AtomicInteger(clusterThreads);
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for(int t = 0; t < parseThreads; t += 1)
+        {
+            threads.add(new Thread(() -> parse(inputs, parsed, parsing, clusterThreads), "batch-parse-" + t));
+        }
+
+        for(int t = 0; t < clusterThreads; t += 1)
+        {
+            threads.add(new Thread(() -> cluster(parsed, clustered, clustering, writeThreads), "batch-cluster-" + t));
+        }
+
+        for(int t = 0; t < writeThreads; t += 1)
+        {
+            threads.add(new Thread(() -> write(clustered), "batch-write-" + t));
+        }
+
+        for(Thread thread : threads)
+        {
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        try
+        {
+            for(Thread thread : threads)
+            {
+                thread.join();
+            }
+        }
+
+        catch(InterruptedException e)
+        {
+            for(Thread thread : threads)
+            {
+                thread.interrupt();
+            }
+
+            throw e;
+        }
+
+        return results;
+    }
+
+
+    /**
+     * the parse stage: reads inputs until there are none left. the last parser to finish tells every clustering
+     * thread to stop
+     */
+    private void parse(Iterator<Result> inputs, BlockingQueue<Job> parsed, AtomicInteger running, int consumers)
+    {
+        try
+        {
+            Result next;
+
+            while((next = next(inputs)) != null)
+            {
+                Job job = new Job(next);
+
+                try
+                {
+                    job.data = FingerprintSet.read(next.input.toString());
+                }
+
+                catch(Throwable e)
+                {
+                    next.error = e;
+                }
+
+                parsed.put(job);
+            }
+        }
+
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        finally
+        {
+            finish(running, parsed, consumers);
+        }
+    }
+
+
+    private static Result next(Iterator<Result> inputs)
+    {
+        synchronized(inputs)
+        {
+            return (inputs.hasNext() == true) ? inputs.next() : null;
+        }
+    }
+
+
+    /**
+     * the cluster stage: clusters the parsed data sets with one solver that is loaded with each of them in turn. a
+     * solver that failed, for instance out of memory for a large survey, is replaced before the next data set
+     */
+    private void cluster(BlockingQueue<Job> parsed, BlockingQueue<Job> clustered, AtomicInteger running, int consumers)
+    {
+        AffinityPropagation solver = null;
+
+        try
+        {
+            for(Job job = parsed.take(); job != Job.END; job = parsed.take())
+            {
+                if(job.result.error == null)
+                {
+                    try
+                    {
+                        if(solver == null)
+                        {
+                            solver = new AffinityPropagation(slider);
+                            solver.setConvergencePolicy(convergence);
+                        }
+
+                        solver.load(job.data);
+                        job.clustering = solver.apCluster();
+                        job.result.summarize(job.clustering);
+                    }
+
+                    catch(Throwable e)
+                    {
+                        job.result.error = e;
+                        solver = null;
+                    }
+                }
+
+                job.data = null;
+                clustered.put(job);
+            }
+        }
+
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        finally
+        {
+            finish(running, clustered, consumers);
+        }
+    }
+
+
+    /**
+     * the write stage: writes every clustering to the output of its input
+     */
+    private void write(BlockingQueue<Job> clustered)
+    {
+        try
+        {
+            for(Job job = clustered.take(); job != Job.END; job = clustered.take())
+            {
+                Result result = job.result;
+
+                if(result.error == null)
+                {
+                    try
+                    {
+                        Path parent = result.output.toAbsolutePath().getParent();
+                        Files.createDirectories(parent);
+                        job.clustering.write(result.output.toString());
+                    }
+
+                    catch(Throwable e)
+                    {
+                        result.error = e;
+                    }
+                }
+
+                job.clustering = null;
+            }
+        }
+
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * counts a thread of a stage as done, and if it was the last one, queues one END for every thread of the next.
+     * called however the thread ends, so the next stage never waits for a thread that has died
+     */
+    private static void finish(AtomicInteger running, BlockingQueue<Job> next, int consumers)
+    {
+        if(running.decrementAndGet() == 0)
+        {
+            try
+            {
+                for(int i = 0; i < consumers; i += 1)
+                {
+                    next.put(Job.END);
+                }
+            }
+
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+
+    /**
+     * clusters a directory or a list of files from the command line:
+     * BatchClusterer slider output-directory input-directory-or-file...
+     */
+    public static void main(String[] args) throws Exception
+    {
+        if(args.length < 3)
+        {
+            System.err.println("usage: BatchClusterer slider output-directory input-directory-or-file...");
+            System.exit(2);
+        }
+
+        BatchClusterer batch = new BatchClusterer(Double.parseDouble(args[0]));
+        Path output = Paths.get(args[1]);
+        List<Result> results;
+        int failed = 0;
+
+        if(args.length == 3)
+        {
+            results = batch.run(Paths.get(args[2]), output);
+        }
+
+        else
+        {
+            List<Path> inputs = new ArrayList<Path>();
+
+            for(int i = 2; i < args.length; i += 1)
+            {
+                inputs.add(Paths.get(args[i]));
+            }
+
+            results = batch.run(inputs, output);
+        }
+
+        for(Result result : results)
+        {
+            System.out.println(result);
+            failed += (result.succeeded() == true) ? 0 : 1;
+        }
+
+        System.exit((failed == 0) ? 0 : 1);
+    }
+}
@@ -0,0 +1,109 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+
+
+/*
+A little-endian writer that keeps track of how far into the file it is, so that
+array sections can be padded to 8 byte boundaries. Shared by the binary formats.
+ */
+class BinaryOutput
+{
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    private long position;
+
+    BinaryOutput(FileChannel channel)
+    {
+        this.channel = channel;
+    }
+
+    void putInt(int value) throws IOException
+    {
+        ensure(4);
+        buffer.putInt(value);
+    }
+
+    void putChar(char value) throws IOException
+    {
+        ensure(2);
+        buffer.putChar(value);
+    }
+
+    void putDouble(double value) throws IOException
+    {
+        ensure(8);
+        buffer.putDouble(value);
+    }
+
+    void putString(String value) throws IOException
+    {
+        byte[] bytes = (value == null) ? null : value.getBytes(StandardCharsets.UTF_8);
+        putInt(bytes == null ? -1 : bytes.length);
+
+        for(int i = 0; bytes != null && i < bytes.length; i += 1)
+        {
+            ensure(1);
+            buffer.put(bytes[i]);
+        }
+    }
+
+    void putInts(int[] values, int count) throws IOException
+    {
+        int from = 0;
+
+        while(from < count)
+        {
+            ensure(4);
+            int chunk = Math.min(count - from, buffer.remaining() / 4);
+            buffer.asIntBuffer().put(values, from, chunk);
+            buffer.position(buffer.position() + 4 * chunk);
+            from += chunk;
+        }
+    }
+
+    void putDoubles(double[] values, int count) throws IOException
+    {
+        int from = 0;
+
+        while(from < count)
+        {
+            ensure(8);
+            int chunk = Math.min(count - from, buffer.remaining() / 8);
+            buffer.asDoubleBuffer().put(values, from, chunk);
+            buffer.position(buffer.position() + 8 * chunk);
+            from += chunk;
+        }
+    }
+
+    void pad() throws IOException
+    {
+        while((position + buffer.position()) % 8 != 0)
+        {
+            ensure(1);
+            buffer.put((byte) 0);
+        }
+    }
+
+    private void ensure(int bytes) throws IOException
+    {
+        if(buffer.remaining() < bytes)
+        {
+            flush();
+        }
+    }
+
+    void flush() throws IOException
+    {
+        buffer.flip();
+        position += buffer.remaining();
+
+        while(buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+
+        buffer.clear();
+    }
+}
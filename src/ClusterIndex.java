@@ -0,0 +1,149 @@
+import java.util.*;
+
+/*
+The clusters of a clustering, built in one pass over its examplar labels. Clusters are
+numbered in the order their examplars first show up when the reference points are walked
+in order, which is the order the cluster files have always been written in; the members
+of a cluster are listed in increasing index order, one cluster after another in a single
+array.
+ */
+public class ClusterIndex
+{
+    private final int[] examplarOf;
+    private final int[] clusterOf;
+    private final int[] examplars;
+    private final int[] memberStart;
+    private final int[] members;
+
+
+    /**
+     * Constructor of the ClusterIndex class.
+     * @param examplarOf index of the examplar of every reference point, -1 for a point that belongs to no cluster
+     */
+    public ClusterIndex(int[] examplarOf)
+    {
+        int n = examplarOf.length, numClusters = 0;
+        int[] clusterOfExamplar = new int[n];
+
+        this.examplarOf = examplarOf.clone();
+        this.clusterOf = new int[n];
+        Arrays.fill(clusterOfExamplar, -1);
+
+        // numbering the clusters in order of first appearance
+        int[] found = new int[n];
+
+        for(int examplar : examplarOf)
+        {
+            if(examplar >= 0 && clusterOfExamplar[examplar] < 0)
+            {
+                clusterOfExamplar[examplar] = numClusters;
+                found[numClusters] = examplar;
+                numClusters += 1;
+            }
+        }
+
+        examplars = Arrays.copyOf(found, numClusters);
+        memberStart = new int[numClusters + 1];
+
+        for(int i = 0; i < n; i += 1)
+        {
+            clusterOf[i] = (examplarOf[i] >= 0) ? clusterOfExamplar[examplarOf[i]] : -1;
+
+            if(clusterOf[i] >= 0)
+            {
+                memberStart[clusterOf[i] + 1] += 1;
+            }
+        }
+
+        for(int c = 0; c < numClusters; c += 1)
+        {
+            memberStart[c + 1] += memberStart[c];
+        }
+
+        // filling every cluster in index order, next[c] is where its next member goes
+        int[] next = Arrays.copyOf(memberStart, numClusters);
+        members = new int[memberStart[numClusters]];
+
+        for(int i = 0; i < n; i += 1)
+        {
+            if(clusterOf[i] >= 0)
+            {
+                members[next[clusterOf[i]]] = i;
+                next[clusterOf[i]] += 1;
+            }
+        }
+    }
+
+
+    public int getNumClusters()
+    {
+        return examplars.length;
+    }
+
+
+    public int getNumReferencePoints()
+    {
+        return examplarOf.length;
+    }
+
+
+    /**
+     * @param point index of a reference point
+     * @return returns the index of its examplar, -1 if it has none
+     */
+    public int getExamplarOf(int point)
+    {
+        return examplarOf[point];
+    }
+
+
+    /**
+     * @param point index of a reference point
+     * @return returns the number of its cluster, -1 if it has none
+     */
+    public int getCluster(int point)
+    {
+        return clusterOf[point];
+    }
+
+
+    /**
+     * @param cluster number of a cluster
+     * @return returns the index of its examplar
+     */
+    public int getExamplar(int cluster)
+    {
+        return examplars[cluster];
+    }
+
+
+    /**
+     * @param cluster number of a cluster
+     * @return returns its number of members, the examplar included if it is its own examplar
+     */
+    public int getSize(int cluster)
+    {
+        return memberStart[cluster + 1] - memberStart[cluster];
+    }
+
+
+    /**
+     * @param cluster number of a cluster
+     * @param i position of the member in the cluster, between 0 and getSize(cluster)
+     * @return returns the index of the i-th member of the cluster
+     */
+    public int getMember(int cluster, int i)
+    {
+        return members[memberStart[cluster] + i];
+    }
+
+
+    /**
+     * @param cluster number of a cluster
+     * @return returns the indices of the members of the cluster, in increasing order
+     */
+    public int[] getMembers(int cluster)
+    {
+        return Arrays.copyOfRange(members, memberStart[cluster], memberStart[cluster + 1]);
+    }
+}
@@ -0,0 +1,204 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.*;
+
+
+/*
+What one call of AffinityPropagation.apCluster() found: the examplar of every reference
+point, the clusters built from them, the net similarity and how the run went. A result
+never changes once it has been returned, later calls of apCluster() return new ones.
+The data set is referenced, not copied, and is only read to export the clusters.
+ */
+public class ClusteringResult
+{
+    private final FingerprintSet data;
+    private final ClusterIndex clusters;
+    private final double preference;
+    private final double netSimilarity;
+    private final int iterations;
+    private final ConvergencePolicy.StopReason stopReason;
+    private final double maxMessageChange;
+
+
+    ClusteringResult(FingerprintSet data, ClusterIndex clusters, double preference, double netSimilarity, int iterations,
+                     ConvergencePolicy.StopReason stopReason, double maxMessageChange)
+    {
+        this.data = data;
+        this.clusters = clusters;
+        this.preference = preference;
+        this.netSimilarity = netSimilarity;
+        this.iterations = iterations;
+        this.stopReason = stopReason;
+        this.maxMessageChange = maxMessageChange;
+    }
+
+
+    /**
+     * @return returns the data set the clustering was run on
+     */
+    public FingerprintSet getData()
+    {
+        return data;
+    }
+
+
+    public ClusterIndex getClusterIndex()
+    {
+        return clusters;
+    }
+
+
+    public int getNumClusters()
+    {
+        return clusters.getNumClusters();
+    }
+
+
+    /**
+     * @return returns the index of the examplar of every reference point, -1 where none was found
+     */
+    public int[] getExamplars()
+    {
+        int[] examplars = new int[clusters.getNumReferencePoints()];
+
+        for(int i = 0; i < examplars.length; i += 1)
+        {
+            examplars[i] = clusters.getExamplarOf(i);
+        }
+
+        return examplars;
+    }
+
+
+    /**
+     * @return returns the index of the examplar of every cluster, in cluster order
+     */
+    public int[] getClusterExamplars()
+    {
+        int[] examplars = new int[clusters.getNumClusters()];
+
+        for(int c = 0; c < examplars.length; c += 1)
+        {
+            examplars[c] = clusters.getExamplar(c);
+        }
+
+        return examplars;
+    }
+
+
+    /**
+     * @param cluster number of a cluster
+     * @return returns the indices of its members, in increasing order
+     */
+    public int[] getMembers(int cluster)
+    {
+        return clusters.getMembers(cluster);
+    }
+
+
+    public double getPreference()
+    {
+        return preference;
+    }
+
+
+    /**
+     * @return returns the sum of s(i,e(i)) over every reference point i and its examplar e(i), where an examplar's
+     * similarity to itself is the preference
+     */
+    public double getNetSimilarity()
+    {
+        return netSimilarity;
+    }
+
+
+    /**
+     * @return returns the number of iterations the messages had been through when the run stopped
+     */
+    public int getIterations()
+    {
+        return iterations;
+    }
+
+
+    public ConvergencePolicy.StopReason getStopReason()
+    {
+        return stopReason;
+    }
+
+
+    /**
+     * @return returns the largest change of a message in the last iteration
+     */
+    public double getMaxMessageChange()
+    {
+        return maxMessageChange;
+    }
+
+
+    /**
+     * writes every cluster to one file, compressed with gzip if the name ends in .gz (see write(OutputStream))
+     * @param filename file address of the export
+     * @throws IOException if the file cannot be written
+     */
+    public void write(String filename) throws IOException
+    {
+        try(OutputStream file = new FileOutputStream(filename))
+        {
+            if(filename.endsWith(".gz") == true)
+            {
+                try(GZIPOutputStream zipped = new GZIPOutputStream(file, 1 << 16))
+                {
+                    write(zipped);
+                }
+            }
+
+            else
+            {
+                write(file);
+            }
+        }
+    }
+
+
+    /**
+     * writes every cluster, one after another, in the point format of the cluster files of
+     * AffinityPropagation.writeFile(). the survey header comes once, then every cluster starts with a line
+     * "cluster,number,examplar index,number of points" followed by its members in index order
+     * @param out stream the export is written to, flushed but not closed
+     * @throws IOException if the stream cannot be written
+     */
+    public void write(OutputStream out) throws IOException
+    {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+        ReferencePoint[] points = data.getPoints();
+
+        writer.write("source_device_model," + data.getSourceDeviceModel() + "\n");
+        writer.write("building," + data.getBuilding() + "\n");
+        writer.write("floor," + data.getFloor() + "\n");
+        writer.write("number_of_clusters," + clusters.getNumClusters() + "\n");
+
+        for(int c = 0; c < clusters.getNumClusters(); c += 1)
+        {
+            writer.write("cluster," + c + "," + clusters.getExamplar(c) + "," + clusters.getSize(c) + "\n");
+
+            for(int i = 0; i < clusters.getSize(c); i += 1)
+            {
+                ReferencePoint point = points[clusters.getMember(c, i)];
+
+                writer.write("begin_new_point" + "\n");
+                writer.write("Coordinate," + point.x + "," + point.y + "\n");
+                writer.write(point.orientation + "\n");
+
+                for(int j = 0; j < point.getNumRSS(); j += 1)
+                {
+                    writer.write(point.getRSS(j) + "," + "\n");
+                }
+
+                writer.write("end_of_point" + "\n");
+            }
+        }
+
+        writer.flush();
+    }
+}
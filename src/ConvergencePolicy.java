@@ -0,0 +1,100 @@
+/*
+Decides when apCluster() stops. A run stops as soon as one of these holds:
+  - no reference point has changed its examplar for stableIterations iterations in a row
+  - no responsibility or availability moved by more than tolerance in the last iteration
+    (only if tolerance is above 0)
+  - maxIterations iterations have been run
+The reason is reported back by the solver. A policy holds no state of its own, so one
+instance can be shared by any number of solvers.
+ */
+public class ConvergencePolicy
+{
+    public enum StopReason
+    {
+        // the examplars stayed the same for the whole stable window
+        CONVERGED,
+        // every message changed by less than the tolerance
+        TOLERANCE,
+        // the iteration cap was reached before either of the above
+        MAX_ITERATIONS
+    }
+
+    private final int maxIterations;
+    private final int stableIterations;
+    private final double tolerance;
+
+
+    /**
+     * Constructor of the ConvergencePolicy class with the defaults: at most 1000 iterations, 10 stable
+     * iterations in a row, no message tolerance.
+     */
+    public ConvergencePolicy()
+    {
+        this(1000, 10, 0.0);
+    }
+
+
+    /**
+     * Constructor of the ConvergencePolicy class.
+     * @param maxIterations largest number of iterations of one run
+     * @param stableIterations number of iterations in a row without an examplar change that ends the run
+     * @param tolerance largest change of any message that ends the run, 0 to never stop on it
+     */
+    public ConvergencePolicy(int maxIterations, int stableIterations, double tolerance)
+    {
+        if(maxIterations < 1 || stableIterations < 1 || tolerance < 0 || Double.isNaN(tolerance))
+        {
+            throw new IllegalArgumentException("invalid convergence policy: " + maxIterations + ", " + stableIterations + ", " + tolerance);
+        }
+
+        this.maxIterations = maxIterations;
+        this.stableIterations = stableIterations;
+        this.tolerance = tolerance;
+    }
+
+
+    public int getMaxIterations()
+    {
+        return maxIterations;
+    }
+
+
+    public int getStableIterations()
+    {
+        return stableIterations;
+    }
+
+
+    public double getTolerance()
+    {
+        return tolerance;
+    }
+
+
+    /**
+     * decides whether a run stops after the iteration it has just finished
+     * @param iterations number of iterations run so far
+     * @param unchanged number of iterations in a row, up to this one, without an examplar change
+     * @param maxMessageChange largest change of a responsibility or availability in this iteration
+     * @return returns why the run stops, or null if it goes on
+     */
+    public StopReason check(int iterations, int unchanged, double maxMessageChange)
+    {
+        if(unchanged >= stableIterations)
+        {
+            return StopReason.CONVERGED;
+        }
+
+        if(tolerance > 0 && maxMessageChange <= tolerance)
+        {
+            return StopReason.TOLERANCE;
+        }
+
+        if(iterations >= maxIterations)
+        {
+            return StopReason.MAX_ITERATIONS;
+        }
+
+        return null;
+    }
+}
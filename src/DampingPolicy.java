@@ -0,0 +1,174 @@
+/*
+Decides the damping factor of AffinityPropagation.apCluster() from one iteration to the
+next. A fixed policy keeps one damping factor for the whole run, which is what the solver
+always did. An adaptive policy starts at minDamping and watches the run for oscillation:
+a point k turns back when the sign of its evidence r(k,k) + a(k,k) flips for the third
+time within window iterations, so it keeps coming and going as a candidate examplar, and
+an iteration oscillates when some point turns back while a reference point changes its
+examplar. After window oscillating iterations in a row the damping is raised by step, up
+to maxDamping; once it is there the preference can be lowered by preferenceStep of its
+size instead, which leaves fewer candidates to compete. After window iterations in a row
+in which no point turned back, the damping is eased down by step again, not below
+minDamping. A run that settles without oscillating is left at minDamping, so a low
+minDamping is only paid for by the data sets that need more. A policy holds no state of
+its own, so one instance can be shared by any number of solvers.
+ */
+public class DampingPolicy
+{
+    public enum Action
+    {
+        // leave damping and preference as they are
+        NONE,
+        // the run oscillates, raise the damping by step
+        RAISE_DAMPING,
+        // the run oscillates at maxDamping, lower the preference by preferenceStep
+        LOWER_PREFERENCE,
+        // the run is calm, ease the damping back by step
+        LOWER_DAMPING
+    }
+
+    private final double minDamping, maxDamping, step;
+    private final int window;
+    private final double preferenceStep;
+
+
+    /**
+     * Constructor of the DampingPolicy class for a fixed damping factor of 0.5.
+     */
+    public DampingPolicy()
+    {
+        this(0.5);
+    }
+
+
+    /**
+     * Constructor of the DampingPolicy class for a fixed damping factor.
+     * @param damping weight of the previous message in every update, in [0, 1)
+     */
+    public DampingPolicy(double damping)
+    {
+        this(damping, damping, 0.0, 1, 0.0);
+    }
+
+
+    /**
+     * Constructor of the DampingPolicy class for an adaptive damping factor.
+     * @param minDamping damping factor a run starts with and is eased back to, in [0, 1)
+     * @param maxDamping largest damping factor oscillation can raise it to, in [minDamping, 1)
+     * @param step amount the damping factor is raised or lowered by at a time
+     * @param window number of iterations in a row it takes to call a run oscillating or calm, and the span in which
+     * three sign flips of a point count as turning back
+     * @param preferenceStep fraction of its size the preference is lowered by when the run still oscillates at
+     * maxDamping, 0 to never change it
+     */
+    public DampingPolicy(double minDamping, double maxDamping, double step, int window, double preferenceStep)
+    {
+        if((minDamping >= 0 && minDamping <= maxDamping && maxDamping < 1 && step >= 0 && window >= 1
+            && preferenceStep >= 0 && preferenceStep < 1) == false)
+        {
+            throw new IllegalArgumentException("invalid damping policy: " + minDamping + ", " + maxDamping + ", " + step
+                                               + ", " + window + ", " + preferenceStep);
+        }
+
+        this.minDamping = minDamping;
+        this.maxDamping = maxDamping;
+        this.step = step;
+        this.window = window;
+        this.preferenceStep = preferenceStep;
+    }
+
+
+    /**
+     * @return returns an adaptive policy that starts at 0.5, goes up to 0.9 in steps of 0.05 over windows of 5
+     * iterations, and leaves the preference alone
+     */
+    public static DampingPolicy adaptive()
+    {
+        return new DampingPolicy(0.5, 0.9, 0.05, 5, 0.0);
+    }
+
+
+    public double getMinDamping()
+    {
+        return minDamping;
+    }
+
+
+    public double getMaxDamping()
+    {
+        return maxDamping;
+    }
+
+
+    public double getStep()
+    {
+        return step;
+    }
+
+
+    public int getWindow()
+    {
+        return window;
+    }
+
+
+    public double getPreferenceStep()
+    {
+        return preferenceStep;
+    }
+
+
+    /**
+     * @return returns true if the damping factor can change during a run
+     */
+    public boolean isAdaptive()
+    {
+        return (maxDamping > minDamping && step > 0) || preferenceStep > 0;
+    }
+
+
+    /**
+     * decides what to change after the iteration a run has just finished
+     * @param damping damping factor of the iteration
+     * @param oscillating number of iterations in a row, up to this one, that oscillated
+     * @param calm number of iterations in a row, up to this one, in which no point turned back
+     * @return returns what to change; the solver starts counting both streaks over after any change
+     */
+    public Action check(double damping, int oscillating, int calm)
+    {
+        if(oscillating >= window)
+        {
+            if(damping < maxDamping && step > 0)
+            {
+                return Action.RAISE_DAMPING;
+            }
+
+            return (preferenceStep > 0) ? Action.LOWER_PREFERENCE : Action.NONE;
+        }
+
+        if(calm >= window && damping > minDamping && step > 0)
+        {
+            return Action.LOWER_DAMPING;
+        }
+
+        return Action.NONE;
+    }
+
+
+    /**
+     * @return returns the damping factor one step above the given one, at most maxDamping
+     */
+    public double raise(double damping)
+    {
+        return Math.min(maxDamping, damping + step);
+    }
+
+
+    /**
+     * @return returns the damping factor one step below the given one, at least minDamping
+     */
+    public double lower(double damping)
+    {
+        return Math.max(minDamping, damping - step);
+    }
+}
@@ -0,0 +1,504 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+
+
+/*
+A binary container for one survey: everything the .csv format holds plus, optionally, a
+precomputed similarity matrix. Loading maps the file and hands out DoubleBuffer views of
+the RSS readings, psi_matrix and similarities without copying them.
+
+Layout, little-endian, every array section starting on an 8 byte boundary:
+    "APFP", version, flags, floor, number of points, number of access points,
+    psi rows, psi columns                                   8 ints
+    tie-break noise scale of the similarities               1 double, from version 2 on
+    source device model, building                           int length (-1 for none) + UTF-8
+    x and y of every point                                  2N doubles
+    orientation of every point                              N chars
+    RSS readings, point after point                         N * numAccessPoints doubles
+    psi_matrix, row after row                               if FLAG_PSI
+    similarities, row after row                             if FLAG_SIMILARITIES
+
+Version 1 files, which have no noise scale, are still read; their similarities count as
+carrying no noise. Run main() to convert between the .csv and the binary format.
+ */
+public class FingerprintFile
+{
+    private static final int MAGIC = 0x50465041; // "APFP" read as a little-endian int
+    private static final int VERSION = 2;
+    private static final int FLAG_PSI = 1;
+    private static final int FLAG_SIMILARITIES = 2;
+    private static final int FLAG_SYMMETRIC = 4;
+
+    // header information
+    private String filename;
+    private String sourceDeviceModel;
+    private String building;
+    private int floor;
+    private int numReferencePoints, numAccessPoints;
+    private int flags;
+    private double noiseScale;
+
+    // views into the mapped file
+    private double[] coordinates;
+    private char[] orientations;
+    private DoubleBuffer fingerprints;
+    private DoubleBuffer psi;
+    private int psiRows, psiColumns;
+    private DoubleBuffer similarities;
+
+
+    private FingerprintFile(String filename)
+    {
+        this.filename = filename;
+    }
+
+
+    public String getFilename()
+    {
+        return filename;
+    }
+
+
+    public String getSourceDeviceModel()
+    {
+        return sourceDeviceModel;
+    }
+
+
+    public String getBuilding()
+    {
+        return building;
+    }
+
+
+    public int getFloor()
+    {
+        return floor;
+    }
+
+
+    public int getNumReferencePoints()
+    {
+        return numReferencePoints;
+    }
+
+
+    public int getNumAccessPoints()
+    {
+        return numAccessPoints;
+    }
+
+
+    /**
+     * @return returns the RSS readings of all reference points as a read-only view of the file
+     */
+    public DoubleBuffer getFingerprints()
+    {
+        return fingerprints.duplicate();
+    }
+
+
+    /**
+     * @return returns the psi_matrix block, row after row, as a read-only view of the file, or null if there is none
+     */
+    public DoubleBuffer getPsi()
+    {
+        return (psi == null) ? null : psi.duplicate();
+    }
+
+
+    /**
+     * @return returns the stored similarity matrix, row after row, as a read-only view of the file, or null if there is none
+     */
+    public DoubleBuffer getSimilarities()
+    {
+        return (similarities == null) ? null : similarities.duplicate();
+    }
+
+
+    /**
+     * @return returns the tie-break noise scale (see AffinityPropagation.setTieBreakNoise()) the stored similarities
+     * were written with, 0 if they carry none or there are none
+     */
+    public double getNoiseScale()
+    {
+        return noiseScale;
+    }
+
+
+    /**
+     * @return returns true if the stored similarity matrix is symmetric
+     */
+    public boolean isSymmetric()
+    {
+        return (flags & FLAG_SYMMETRIC) != 0;
+    }
+
+
+    /**
+     * copies the survey into heap arrays, the form the solvers work on
+     * @return returns the reference points and readings of the file
+     */
+    public FingerprintSet toFingerprintSet()
+    {
+        double[] values = new double[numReferencePoints * numAccessPoints];
+        ReferencePoint[] points = new ReferencePoint[numReferencePoints];
+        double[][] rows = null;
+
+        getFingerprints().get(values);
+
+        for(int i = 0; i < numReferencePoints; i += 1)
+        {
+            points[i] = new ReferencePoint(coordinates[2 * i], coordinates[2 * i + 1], values, i * numAccessPoints, numAccessPoints);
+            points[i].orientation = orientations[i];
+        }
+
+        if(psi != null)
+        {
+            DoubleBuffer view = getPsi();
+            rows = new double[psiRows][psiColumns];
+
+            for(double[] row : rows)
+            {
+                view.get(row);
+            }
+        }
+
+        return new FingerprintSet(filename, sourceDeviceModel, building, floor, points, values, numAccessPoints, rows);
+    }
+
+
+    /**
+     * maps a binary survey file
+     * @param filename file address of the binary file
+     * @return returns the mapped file
+     * @throws IOException if the file cannot be read or is not a binary survey file
+     */
+    public static FingerprintFile open(String filename) throws IOException
+    {
+        FingerprintFile file = new FingerprintFile(filename);
+
+        try(RandomAccessFile access = new RandomAccessFile(filename, "r"))
+        {
+            FileChannel channel = access.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(40).order(ByteOrder.LITTLE_ENDIAN);
+            long position;
+            int version;
+
+            readFully(channel, header, 0);
+
+            if(header.getInt(0) != MAGIC)
+            {
+                throw new IOException(filename + " is not a binary survey file");
+            }
+
+            version = header.getInt(4);
+
+            if(version != 1 && version != VERSION)
+            {
+                throw new IOException(filename + " has unsupported version " + version);
+            }
+
+            file.flags = header.getInt(8);
+            file.floor = header.getInt(12);
+            file.numReferencePoints = header.getInt(16);
+            file.numAccessPoints = header.getInt(20);
+            file.psiRows = header.getInt(24);
+            file.psiColumns = header.getInt(28);
+            file.noiseScale = (version == 1) ? 0.0 : header.getDouble(32);
+
+            position = (version == 1) ? 32 : 40;
+            file.sourceDeviceModel = readString(channel, position);
+            position += 4 + stringLength(file.sourceDeviceModel);
+            file.building = readString(channel, position);
+            position = align(position + 4 + stringLength(file.building));
+
+            int n = file.numReferencePoints;
+            file.coordinates = new double[2 * n];
+            map(channel, position, 2L * n).get(file.coordinates);
+            position += 16L * n;
+
+            file.orientations = new char[n];
+            ByteBuffer chars = channel.map(FileChannel.MapMode.READ_ONLY, position, 2L * n).order(ByteOrder.LITTLE_ENDIAN);
+            chars.asCharBuffer().get(file.orientations);
+            position = align(position + 2L * n);
+
+            file.fingerprints = map(channel, position, (long) n * file.numAccessPoints);
+            position += 8L * n * file.numAccessPoints;
+
+            if((file.flags & FLAG_PSI) != 0)
+            {
+                file.psi = map(channel, position, (long) file.psiRows * file.psiColumns);
+                position += 8L * file.psiRows * file.psiColumns;
+            }
+
+            if((file.flags & FLAG_SIMILARITIES) != 0)
+            {
+                file.similarities = map(channel, position, (long) n * n);
+            }
+        }
+
+        catch(BufferUnderflowException | IllegalArgumentException e)
+        {
+            throw new IOException(filename + " is truncated", e);
+        }
+
+        return file;
+    }
+
+
+    /**
+     * writes a survey in the binary format
+     * @param data reference points and readings of the survey
+     * @param similarities flat n x n similarity matrix to store with it, or null
+     * @param filename file address of the binary file
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(FingerprintSet data, double[] similarities, String filename) throws IOException
+    {
+        write(data, similarities, 0.0, filename);
+    }
+
+
+    /**
+     * writes a survey in the binary format
+     * @param data reference points and readings of the survey
+     * @param similarities flat n x n similarity matrix to store with it, or null
+     * @param noiseScale tie-break noise scale the similarities carry, 0 for none
+     * @param filename file address of the binary file
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(FingerprintSet data, double[] similarities, double noiseScale, String filename) throws IOException
+    {
+        int n = data.getNumReferencePoints(), m = data.getNumAccessPoints();
+        double[][] psi = data.getPsi();
+        int flags = 0;
+
+        if(psi != null)
+        {
+            flags |= FLAG_PSI;
+        }
+
+        if(similarities != null)
+        {
+            flags |= FLAG_SIMILARITIES;
+
+            if(isSymmetric(similarities, n) == true)
+            {
+                flags |= FLAG_SYMMETRIC;
+            }
+        }
+
+        try(FileOutputStream stream = new FileOutputStream(filename))
+        {
+            BinaryOutput out = new BinaryOutput(stream.getChannel());
+
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(flags);
+            out.putInt(data.getFloor());
+            out.putInt(n);
+            out.putInt(m);
+            out.putInt(psi == null ? 0 : psi.length);
+            out.putInt(psi == null || psi.length == 0 ? 0 : psi[0].length);
+            out.putDouble(similarities == null ? 0.0 : noiseScale);
+            out.putString(data.getSourceDeviceModel());
+            out.putString(data.getBuilding());
+            out.pad();
+
+            for(ReferencePoint point : data.getPoints())
+            {
+                out.putDouble(point.x);
+                out.putDouble(point.y);
+            }
+
+            for(ReferencePoint point : data.getPoints())
+            {
+                out.putChar(point.orientation);
+            }
+
+            out.pad();
+            out.putDoubles(data.getFingerprints(), n * m);
+
+            if(psi != null)
+            {
+                for(double[] row : psi)
+                {
+                    out.putDoubles(row, row.length);
+                }
+            }
+
+            if(similarities != null)
+            {
+                out.putDoubles(similarities, n * n);
+            }
+
+            out.flush();
+        }
+    }
+
+
+    /**
+     * writes a survey in the .csv format FingerprintSet.read() understands
+     * @param data reference points and readings of the survey
+     * @param filename file address of the .csv file
+     * @throws IOException if the file cannot be written
+     */
+    public static void writeCsv(FingerprintSet data, String filename) throws IOException
+    {
+        int m = data.getNumAccessPoints();
+        double[][] psi = data.getPsi();
+
+        try(PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(filename))))
+        {
+            pw.append("source_device_model," + data.getSourceDeviceModel() + "\n");
+            pw.append("building," + data.getBuilding() + "\n");
+            pw.append("floor," + data.getFloor() + "\n");
+            pw.append("number_of_points," + data.getNumReferencePoints() + "\n");
+            pw.append("MACListLength," + m + "\n");
+
+            for(ReferencePoint point : data.getPoints())
+            {
+                pw.append("begin_new_point" + "\n");
+                pw.append("Coordinate," + point.x + "," + point.y + "\n");
+                pw.append("Labeled Point," + point.x + "," + point.y + "\n");
+                pw.append(point.orientation + ",0,0" + "\n");
+
+                for(int i = 0; i < m; i += 1)
+                {
+                    pw.append(point.getRSS(i) + "\n");
+                }
+
+                pw.append("end_of_point" + "\n");
+            }
+
+            if(psi != null && psi.length > 0)
+            {
+                pw.append("psi_matrix," + psi.length + "," + psi[0].length + "\n");
+
+                for(double[] row : psi)
+                {
+                    for(int i = 0; i < row.length; i += 1)
+                    {
+                        pw.append((i == 0 ? "" : ",") + row[i]);
+                    }
+
+                    pw.append("\n");
+                }
+            }
+
+            if(pw.checkError() == true)
+            {
+                throw new IOException("could not write " + filename);
+            }
+        }
+    }
+
+
+    /**
+     * converts between the formats:
+     *   to-binary in.csv out.apfp [slider]   (storing the similarity matrix when a slider is given)
+     *   to-csv in.apfp out.csv
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if(args.length >= 3 && args[0].equals("to-binary"))
+        {
+            FingerprintSet data = FingerprintSet.read(args[1]);
+
+            if(args.length > 3)
+            {
+                new AffinityPropagation(data, Double.parseDouble(args[3])).writeFile_binary(args[2]);
+            }
+
+            else
+            {
+                write(data, null, args[2]);
+            }
+        }
+
+        else if(args.length == 3 && args[0].equals("to-csv"))
+        {
+            writeCsv(open(args[1]).toFingerprintSet(), args[2]);
+        }
+
+        else
+        {
+            System.err.println("usage: FingerprintFile to-binary in.csv out.apfp [slider] | to-csv in.apfp out.csv");
+            System.exit(2);
+        }
+    }
+
+
+    private static boolean isSymmetric(double[] matrix, int n)
+    {
+        for(int i = 0; i < n; i += 1)
+        {
+            for(int j = i + 1; j < n; j += 1)
+            {
+                if(matrix[i * n + j] != matrix[j * n + i])
+                {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+
+    private static DoubleBuffer map(FileChannel channel, long position, long count) throws IOException
+    {
+        if(8 * count > Integer.MAX_VALUE)
+        {
+            throw new IOException("a section of " + count + " doubles is too large to map");
+        }
+
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, 8 * count).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+    }
+
+
+    private static long align(long position)
+    {
+        return (position + 7) & ~7L;
+    }
+
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        while(buffer.hasRemaining())
+        {
+            if(channel.read(buffer, position + buffer.position()) < 0)
+            {
+                throw new EOFException();
+            }
+        }
+
+        buffer.flip();
+    }
+
+
+    private static String readString(FileChannel channel, long position) throws IOException
+    {
+        ByteBuffer length = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, length, position);
+
+        if(length.getInt(0) < 0)
+        {
+            return null;
+        }
+
+        ByteBuffer value = ByteBuffer.allocate(length.getInt(0));
+        readFully(channel, value, position + 4);
+
+        return new String(value.array(), StandardCharsets.UTF_8);
+    }
+
+
+    private static int stringLength(String value)
+    {
+        return (value == null) ? 0 : value.getBytes(StandardCharsets.UTF_8).length;
+    }
+}
@@ -0,0 +1,480 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+
+/*
+Reads the .csv survey format straight from the bytes of a memory-mapped file. Lines are
+split into fields by position only and numbers are parsed from the bytes into the final
+primitive arrays, which are sized from the number_of_points and MACListLength header
+lines; no String is created except for the header values. The grammar is the one the
+original String.split reader followed (trailing empty fields are ignored, a line is
+classified by its number of fields), but malformed input is reported with its line number
+instead of being skipped.
+ */
+class FingerprintParser
+{
+    private static final byte[] END_OF_POINT = ascii("end_of_point");
+    private static final byte[] SOURCE_DEVICE_MODEL = ascii("source_device_model");
+    private static final byte[] BUILDING = ascii("building");
+    private static final byte[] FLOOR = ascii("floor");
+    private static final byte[] NUMBER_OF_POINTS = ascii("number_of_points");
+    private static final byte[] MAC_LIST_LENGTH = ascii("MACListLength");
+    private static final byte[] COORDINATE = ascii("Coordinate");
+    private static final byte[] LABELED_POINT = ascii("Labeled Point");
+    private static final byte[] PSI_MATRIX = ascii("psi_matrix");
+
+    // powers of ten that are exact doubles, for the fast path of parseDouble
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static
+    {
+        POWERS_OF_TEN[0] = 1.0;
+
+        for(int i = 1; i < POWERS_OF_TEN.length; i += 1)
+        {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+        }
+    }
+
+    private final String filename;
+    private final ByteBuffer bytes;
+    private int lineNumber;
+
+    // start and end of every field of the current line, field f is [fields[2f], fields[2f + 1])
+    private int[] fields = new int[16];
+    private int numFields;
+
+    // what has been read so far
+    private String sourceDeviceModel, building;
+    private int floor;
+    private int numReferencePoints = -1, numAccessPoints = -1;
+    private ReferencePoint[] points;
+    private double[] fingerprints;
+    private double[][] psi;
+
+
+    private FingerprintParser(String filename, ByteBuffer bytes)
+    {
+        this.filename = filename;
+        this.bytes = bytes;
+    }
+
+
+    /**
+     * reads a .csv file
+     * @param filename file address to the data set
+     * @return returns the reference points and readings of the file
+     * @throws IOException if the file cannot be read or is malformed, the message names the offending line
+     */
+    static FingerprintSet parse(String filename) throws IOException
+    {
+        try(RandomAccessFile file = new RandomAccessFile(filename, "r"))
+        {
+            FileChannel channel = file.getChannel();
+
+            if(channel.size() > Integer.MAX_VALUE)
+            {
+                throw new IOException(filename + ": files over 2 GB are not supported");
+            }
+
+            FingerprintParser parser = new FingerprintParser(filename, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            return parser.parse();
+        }
+    }
+
+
+    private FingerprintSet parse() throws IOException
+    {
+        int limit = bytes.limit(), start = 0, end;
+        int AP_added = 0, reference_added = 0, RSS_added = 0;
+        // line of the Coordinate record of the point whose readings are being read, 0 once its count has been checked
+        int pointLine = 0;
+        boolean orientation_active = false, RSS_active = false;
+        ReferencePoint newPoint = null;
+
+        while(start < limit)
+        {
+            lineNumber += 1;
+            end = start;
+
+            while(end < limit && bytes.get(end) != '\n')
+            {
+                end += 1;
+            }
+
+            setFields(start, (end > start && bytes.get(end - 1) == '\r') ? end - 1 : end);
+            start = end + 1;
+
+            if(numFields == 1)
+            {
+                if(fieldEquals(0, END_OF_POINT))
+                {
+                    orientation_active = false;
+                    RSS_active = false;
+                    checkReadings(pointLine, RSS_added);
+                    pointLine = 0;
+                }
+
+                if(RSS_active == true)
+                {
+                    if(RSS_added == numAccessPoints)
+                    {
+                        throw malformed("more than MACListLength (" + numAccessPoints + ") RSS readings for one point");
+                    }
+
+                    fingerprints[(reference_added - 1) * numAccessPoints + RSS_added] = parseDouble(0);
+                    RSS_added += 1;
+                }
+            }
+
+            else if(numFields == 2)
+            {
+                if(fieldEquals(0, SOURCE_DEVICE_MODEL))
+                {
+                    sourceDeviceModel = fieldString(1);
+                }
+
+                else if(fieldEquals(0, BUILDING))
+                {
+                    building = fieldString(1);
+                }
+
+                else if(fieldEquals(0, FLOOR))
+                {
+                    floor = parseInt(1);
+                }
+
+                else if(fieldEquals(0, NUMBER_OF_POINTS))
+                {
+                    numReferencePoints = parseInt(1);
+
+                    if(numReferencePoints < 0)
+                    {
+                        throw malformed("negative number_of_points");
+                    }
+
+                    points = new ReferencePoint[numReferencePoints];
+                }
+
+                else if(fieldEquals(0, MAC_LIST_LENGTH))
+                {
+                    numAccessPoints = parseInt(1);
+
+                    if(numAccessPoints < 0)
+                    {
+                        throw malformed("negative MACListLength");
+                    }
+                }
+            }
+
+            else if(numFields == 3)
+            {
+                if(fieldEquals(0, COORDINATE))
+                {
+                    if(points == null || numAccessPoints < 0)
+                    {
+                        throw malformed("Coordinate before number_of_points and MACListLength");
+                    }
+
+                    if(reference_added == numReferencePoints)
+                    {
+                        throw malformed("more than number_of_points (" + numReferencePoints + ") points");
+                    }
+
+                    checkReadings(pointLine, RSS_added);
+
+                    if(fingerprints == null)
+                    {
+                        fingerprints = new double[numReferencePoints * numAccessPoints];
+                    }
+
+                    newPoint = new ReferencePoint(parseDouble(1), parseDouble(2), fingerprints,
+                                                  reference_added * numAccessPoints, numAccessPoints);
+                    points[reference_added] = newPoint;
+                    reference_added += 1;
+                    RSS_added = 0;
+                    pointLine = lineNumber;
+                }
+
+                else if(fieldEquals(0, LABELED_POINT))
+                {
+                    orientation_active = true;
+                }
+
+                else if(orientation_active == true)
+                {
+                    if(newPoint == null || fields[1] == fields[0])
+                    {
+                        throw malformed("orientation without a point");
+                    }
+
+                    newPoint.orientation = (char) (bytes.get(fields[0]) & 0xff);
+                    RSS_active = true;
+                }
+
+                else if(fieldEquals(0, PSI_MATRIX))
+                {
+                    psi = new double[parseInt(1)][parseInt(2)];
+                }
+            }
+
+            else if(numFields == numReferencePoints)
+            {
+                if(psi == null || AP_added == psi.length || psi[AP_added].length != numFields)
+                {
+                    throw malformed("psi_matrix row that does not fit the psi_matrix header");
+                }
+
+                for(int i = 0; i < numFields; i += 1)
+                {
+                    psi[AP_added][i] = parseDouble(i);
+                }
+
+                AP_added += 1;
+            }
+        }
+
+        checkReadings(pointLine, RSS_added);
+
+        if(points != null && reference_added != numReferencePoints)
+        {
+            throw new IOException(filename + ": number_of_points is " + numReferencePoints + " but " + reference_added + " points were found");
+        }
+
+        return new FingerprintSet(filename, sourceDeviceModel, building, floor, points, fingerprints,
+                                  Math.max(0, numAccessPoints), psi);
+    }
+
+
+    /**
+     * finds the fields of the line [start, end), leaving out trailing empty fields like String.split(",")
+     */
+    private void setFields(int start, int end)
+    {
+        int fieldStart = start;
+        numFields = 0;
+
+        for(int i = start; i <= end; i += 1)
+        {
+            if(i == end || bytes.get(i) == ',')
+            {
+                if(2 * numFields + 2 > fields.length)
+                {
+                    fields = Arrays.copyOf(fields, 2 * fields.length);
+                }
+
+                fields[2 * numFields] = fieldStart;
+                fields[2 * numFields + 1] = i;
+                numFields += 1;
+                fieldStart = i + 1;
+            }
+        }
+
+        // "".split(",") is one empty field, but any other trailing empty fields are dropped
+        while(numFields > 1 && fields[2 * numFields - 1] == fields[2 * numFields - 2])
+        {
+            numFields -= 1;
+        }
+
+        if(numFields > 1 || fields[1] > fields[0])
+        {
+            return;
+        }
+
+        // a line of only commas splits into no fields at all
+        numFields = (end > start) ? 0 : 1;
+    }
+
+
+    private boolean fieldEquals(int field, byte[] keyword)
+    {
+        int start = fields[2 * field], end = fields[2 * field + 1];
+
+        if(end - start != keyword.length)
+        {
+            return false;
+        }
+
+        for(int i = 0; i < keyword.length; i += 1)
+        {
+            if(bytes.get(start + i) != keyword[i])
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    private String fieldString(int field)
+    {
+        int start = fields[2 * field], end = fields[2 * field + 1];
+        byte[] value = new byte[end - start];
+
+        for(int i = 0; i < value.length; i += 1)
+        {
+            value[i] = bytes.get(start + i);
+        }
+
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+
+    private int parseInt(int field) throws IOException
+    {
+        int start = fields[2 * field], end = fields[2 * field + 1];
+        long value = 0;
+        boolean negative = false;
+
+        while(start < end && bytes.get(start) == ' ')
+        {
+            start += 1;
+        }
+
+        while(end > start && bytes.get(end - 1) == ' ')
+        {
+            end -= 1;
+        }
+
+        if(start < end && (bytes.get(start) == '-' || bytes.get(start) == '+'))
+        {
+            negative = bytes.get(start) == '-';
+            start += 1;
+        }
+
+        if(start == end)
+        {
+            throw malformed("expected an integer in field " + (field + 1));
+        }
+
+        for(int i = start; i < end; i += 1)
+        {
+            int digit = bytes.get(i) - '0';
+
+            if(digit < 0 || digit > 9 || value > Integer.MAX_VALUE)
+            {
+                throw malformed("expected an integer in field " + (field + 1) + ": " + fieldString(field));
+            }
+
+            value = value * 10 + digit;
+        }
+
+        value = negative ? -value : value;
+
+        if(value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+        {
+            throw malformed("integer out of range in field " + (field + 1) + ": " + fieldString(field));
+        }
+
+        return (int) value;
+    }
+
+
+    /**
+     * parses a decimal number. numbers of at most 15 significant digits and a power of ten of at most 22,
+     * which covers every RSS reading and coordinate, are exact doubles divided or multiplied by an exact power
+     * of ten and so come out correctly rounded, exactly as Double.parseDouble would round them; anything else
+     * is handed to Double.parseDouble
+     */
+    private double parseDouble(int field) throws IOException
+    {
+        int start = fields[2 * field], end = fields[2 * field + 1], i;
+        long mantissa = 0;
+        int digits = 0, exponent = 0, b;
+        boolean negative = false, seenDigit = false;
+
+        while(start < end && bytes.get(start) == ' ')
+        {
+            start += 1;
+        }
+
+        while(end > start && bytes.get(end - 1) == ' ')
+        {
+            end -= 1;
+        }
+
+        i = start;
+
+        if(i < end && (bytes.get(i) == '-' || bytes.get(i) == '+'))
+        {
+            negative = bytes.get(i) == '-';
+            i += 1;
+        }
+
+        for(; i < end && (b = bytes.get(i) - '0') >= 0 && b <= 9; i += 1)
+        {
+            seenDigit = true;
+
+            if(mantissa != 0 || b != 0)
+            {
+                mantissa = mantissa * 10 + b;
+                digits += 1;
+            }
+        }
+
+        if(i < end && bytes.get(i) == '.')
+        {
+            for(i += 1; i < end && (b = bytes.get(i) - '0') >= 0 && b <= 9; i += 1)
+            {
+                seenDigit = true;
+
+                if(mantissa != 0 || b != 0)
+                {
+                    mantissa = mantissa * 10 + b;
+                    digits += 1;
+                }
+
+                exponent -= 1;
+            }
+        }
+
+        if(i == end && seenDigit == true && digits <= 15 && exponent >= -22)
+        {
+            double value = (exponent == 0) ? mantissa : mantissa / POWERS_OF_TEN[-exponent];
+            return negative ? -value : value;
+        }
+
+        // exponents, long mantissas, NaN, Infinity and anything malformed
+        try
+        {
+            return Double.parseDouble(fieldString(field));
+        }
+
+        catch(NumberFormatException e)
+        {
+            throw malformed("expected a number in field " + (field + 1) + ": " + fieldString(field));
+        }
+    }
+
+
+    /**
+     * makes sure the point that has just ended got a reading for every access point; the readings it is missing
+     * would otherwise stay 0 dBm, the strongest signal there is
+     * @param pointLine line of the Coordinate record of the point, 0 if there is no point to check
+     * @param added number of RSS readings read for the point
+     */
+    private void checkReadings(int pointLine, int added) throws IOException
+    {
+        if(pointLine > 0 && added != numAccessPoints)
+        {
+            throw new IOException(filename + ":" + pointLine + ": the point has " + added + " RSS readings, MACListLength is "
+                                  + numAccessPoints);
+        }
+    }
+
+
+    private IOException malformed(String message)
+    {
+        return new IOException(filename + ":" + lineNumber + ": " + message);
+    }
+
+
+    private static byte[] ascii(String keyword)
+    {
+        return keyword.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,109 @@
+import java.io.*;
+
+
+/*
+The reference points of one survey file: the header, the coordinates and orientation of
+every point, all RSS readings in one flat array (numAccessPoints values per point, point
+after point) and the psi_matrix block if the file has one.
+ */
+public class FingerprintSet
+{
+    // input file information
+    private String filename;
+    private String sourceDeviceModel;
+    private String building;
+    private int floor;
+
+    // data point information
+    private int numReferencePoints, numAccessPoints;
+    private ReferencePoint[] points;
+    private double[] fingerprints;
+    private double[][] psi;
+
+
+    FingerprintSet(String filename, String sourceDeviceModel, String building, int floor, ReferencePoint[] points,
+                   double[] fingerprints, int numAccessPoints, double[][] psi)
+    {
+        this.filename = filename;
+        this.sourceDeviceModel = sourceDeviceModel;
+        this.building = building;
+        this.floor = floor;
+        this.points = points;
+        this.numReferencePoints = (points == null) ? 0 : points.length;
+        this.fingerprints = fingerprints;
+        this.numAccessPoints = numAccessPoints;
+        this.psi = psi;
+    }
+
+
+    public String getFilename()
+    {
+        return filename;
+    }
+
+
+    public String getSourceDeviceModel()
+    {
+        return sourceDeviceModel;
+    }
+
+
+    public String getBuilding()
+    {
+        return building;
+    }
+
+
+    public int getFloor()
+    {
+        return floor;
+    }
+
+
+    public int getNumReferencePoints()
+    {
+        return numReferencePoints;
+    }
+
+
+    public int getNumAccessPoints()
+    {
+        return numAccessPoints;
+    }
+
+
+    public ReferencePoint[] getPoints()
+    {
+        return points;
+    }
+
+
+    /**
+     * @return returns the RSS readings of all reference points, numAccessPoints values per point
+     */
+    public double[] getFingerprints()
+    {
+        return fingerprints;
+    }
+
+
+    /**
+     * @return returns the psi_matrix block, one row per access point, or null if the file has none
+     */
+    public double[][] getPsi()
+    {
+        return psi;
+    }
+
+
+    /**
+     * reads a .csv file and stores its information
+     * @param filename file address to the data set
+     * @return returns the reference points and readings of the file
+     * @throws IOException if the file cannot be read or is malformed, the message names the offending line
+     */
+    public static FingerprintSet read(String filename) throws IOException
+    {
+        return FingerprintParser.parse(filename);
+    }
+}
@@ -0,0 +1,293 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/*
+Dense affinity propagation with every N x N matrix kept in single precision: similarities,
+responsibilities and availabilities are floats, and the message updates are done in float
+arithmetic. That halves the memory of AffinityPropagation and the bandwidth every
+iteration needs, and with the Vector API the updates run in FloatVector lanes, twice as
+many per vector as the double engine's (see VectorSimilarityKernel). RSS readings are
+whole dBm values, so their squared distances are whole numbers that a float holds exactly
+up to 2^24; the preference is selected in double from the same values and comes out as
+in the double engine. What can differ is the rounding of the messages, which on the data
+sets tried leaves the examplars as they are (see FloatAffinityPropagationTest and the
+precision check of the benchmarks module).
+ */
+public class FloatAffinityPropagation implements AutoCloseable
+{
+    // data set
+    private FingerprintSet data;
+    private int numReferencePoints, numAccessPoints;
+
+    // affinity propagation input, every N x N matrix is stored row after row in one array
+    private float[] similarities;
+    private double gama = 0.36;
+    private float dampingFactor = 0.5f;
+    private double slider;
+    private double preference;
+    private SimilarityKernel kernel = SimilarityKernel.best();
+
+    // affinity propagation parameters
+    private float[] responsibilities;
+    private float[] availablities;
+    private float[] positiveSums;
+    private float[] selfResponsibilities;
+
+    // affinity propagation output
+    private int[] examplars;
+    private int[] previousExamplars;
+
+    // convergence, rowChanges holds the largest message change of every row in the last iteration
+    private ConvergencePolicy convergence = new ConvergencePolicy();
+    private ConvergencePolicy.StopReason stopReason;
+    private int iterations;
+    private double[] rowChanges;
+
+    // parallel execution, every phase runs on the calling thread until setParallelism() or setPool() gives it a pool
+    private final SolverPool pool = new SolverPool();
+
+
+    /**
+     * Constructor of the FloatAffinityPropagation class.
+     * @param filename file address to the data set
+     * @param slider double value between 0-1
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    public FloatAffinityPropagation(String filename, double slider) throws IOException
+    {
+        this(FingerprintSet.read(filename), slider);
+    }
+
+
+    /**
+     * Constructor of the FloatAffinityPropagation class.
+     * @param data reference points and readings of the data set
+     * @param slider double value between 0-1
+     */
+    public FloatAffinityPropagation(FingerprintSet data, double slider)
+    {
+        int n = data.getNumReferencePoints();
+
+        this.data = data;
+        this.numReferencePoints = n;
+        this.numAccessPoints = data.getNumAccessPoints();
+        this.slider = slider;
+
+        similarities = new float[n * n];
+        SimilarityBuilder.build_rows(data.getFingerprints(), n, numAccessPoints, similarities, kernel, null);
+        setPreferences();
+
+        responsibilities = new float[n * n];
+        availablities = new float[n * n];
+        positiveSums = new float[n];
+        selfResponsibilities = new float[n];
+        examplars = new int[n];
+        previousExamplars = new int[n];
+        rowChanges = new double[n];
+        Arrays.fill(examplars, -1);
+    }
+
+
+    public int getNumReferencePoints()
+    {
+        return numReferencePoints;
+    }
+
+
+    public double getPreference()
+    {
+        return preference;
+    }
+
+
+    public int getIterations()
+    {
+        return iterations;
+    }
+
+
+    /**
+     * @return returns why the last call of apCluster() stopped, or null if it has not been called
+     */
+    public ConvergencePolicy.StopReason getStopReason()
+    {
+        return stopReason;
+    }
+
+
+    /**
+     * sets when apCluster() stops, see ConvergencePolicy. a tolerance on the message changes should not be set below
+     * what float rounding leaves, about 1e-7 times the largest similarity
+     * @param convergence the policy used by the following calls of apCluster()
+     */
+    public void setConvergencePolicy(ConvergencePolicy convergence)
+    {
+        this.convergence = convergence;
+    }
+
+
+    /**
+     * @return returns the index of the examplar of every reference point
+     */
+    public int[] getExamplars()
+    {
+        return examplars.clone();
+    }
+
+
+    /**
+     * sets how many threads apCluster() splits its rows and columns over
+     * @param parallelism number of threads, 1 runs everything on the calling thread
+     */
+    public void setParallelism(int parallelism)
+    {
+        pool.setParallelism(parallelism);
+    }
+
+
+    /**
+     * makes apCluster() run its phases on the given pool
+     * @param pool a ForkJoinPool shared with the caller, or null to run on the calling thread
+     */
+    public void setPool(ForkJoinPool pool)
+    {
+        this.pool.set(pool);
+    }
+
+
+    /**
+     * shuts down the pool if setParallelism() made it, a pool given to setPool() is left to the caller; the solver
+     * runs on the calling thread afterwards
+     */
+    @Override
+    public void close()
+    {
+        pool.close();
+    }
+
+
+    /**
+     * sets the preference as the slider quantile of the similarities times gama, selected like AffinityPropagation
+     * does for a symmetric matrix, and inputs it into the main diagonal
+     */
+    private void setPreferences()
+    {
+        final int n = numReferencePoints;
+
+        preference = OrderStatistics.symmetricQuantile(n, slider, (i, j) -> similarities[i * n + j]) * gama;
+
+        for(int i = 0; i < n; i += 1)
+        {
+            similarities[i * n + i] = (float) preference;
+        }
+    }
+
+
+    /**
+     * calculates the expression sum(max{0,r(i',k)}) over every i' not equal to k for the columns k in [from, to)
+     */
+    private void setPositiveResponsibilitySums(int from, int to)
+    {
+        int n = numReferencePoints;
+
+        Arrays.fill(positiveSums, from, to, 0.0f);
+
+        for(int i = 0; i < n; i += 1)
+        {
+            kernel.positiveSums(responsibilities, i * n, i, from, to, positiveSums, selfResponsibilities);
+        }
+    }
+
+
+    /**
+     * runs one iteration: responsibilities, then availabilities, then examplars. the largest message change
+     * of every row is left in rowChanges
+     * @return returns true if no reference point changed its examplar
+     */
+    private boolean iterate()
+    {
+        final int n = numReferencePoints;
+        int[] swap = previousExamplars;
+        previousExamplars = examplars;
+        examplars = swap;
+
+        ParallelRange.run(pool.get(), n, (from, to) ->
+        {
+            for(int i = from; i < to; i += 1)
+            {
+                rowChanges[i] = kernel.responsibilities(similarities, availablities, responsibilities, i * n, n, dampingFactor);
+            }
+        });
+
+        ParallelRange.run(pool.get(), n, this::setPositiveResponsibilitySums);
+
+        ParallelRange.run(pool.get(), n, (from, to) ->
+        {
+            for(int i = from; i < to; i += 1)
+            {
+                rowChanges[i] = Math.max(rowChanges[i], kernel.availabilities(responsibilities, availablities, i * n, i, n,
+                                                                              positiveSums, selfResponsibilities, dampingFactor));
+                examplars[i] = MessageKernels.examplar(availablities, responsibilities, i * n, n);
+            }
+        });
+
+        return Arrays.equals(examplars, previousExamplars);
+    }
+
+
+    /**
+     * does the actual clustering, until the convergence policy stops it (see getStopReason()). the run goes on
+     * from the current messages, and the iteration cap of the policy applies to each call
+     * @return returns the examplars and clusters found, with the statistics of the run
+     */
+    public ClusteringResult apCluster()
+    {
+        int unchanged = 0, start = iterations;
+        double maxMessageChange = 0.0;
+        stopReason = null;
+
+        while(stopReason == null)
+        {
+            iterations += 1;
+
+            if(iterate() == true)
+            {
+                unchanged += 1;
+            }
+
+            else
+            {
+                unchanged = 0;
+            }
+
+            maxMessageChange = MessageKernels.max(rowChanges);
+            stopReason = convergence.check(iterations - start, unchanged, maxMessageChange);
+        }
+
+        return new ClusteringResult(data, new ClusterIndex(examplars), preference, netSimilarity(), iterations, stopReason,
+                                    maxMessageChange);
+    }
+
+
+    /**
+     * @return returns the sum of s(i,e(i)) over every reference point i with an examplar e(i), summed in double with
+     * the preference as s(i,i)
+     */
+    private double netSimilarity()
+    {
+        int n = numReferencePoints;
+        double netSimilarity = 0.0;
+
+        for(int i = 0; i < n; i += 1)
+        {
+            if(examplars[i] >= 0)
+            {
+                netSimilarity += (examplars[i] == i) ? preference : similarities[i * n + examplars[i]];
+            }
+        }
+
+        return netSimilarity;
+    }
+}
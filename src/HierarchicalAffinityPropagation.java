@@ -0,0 +1,424 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/*
+Two-level affinity propagation for floors too large for one dense run. The reference
+points are cut into partitions of at most partitionSize points, either spatially (halving
+the box of x/y coordinates along its longer side until every part is small enough) or in
+random blocks. Every partition is clustered on its own, the partitions side by side on the
+pool, all with the preference of the whole data set (estimated without its similarity
+matrix, see OrderStatistics.pairwiseQuantile) so that a small partition is cut as finely
+as it would be in a single run. The examplars they find are clustered again, each one
+weighted by the number of points it stands for, and every reference point finally
+joins the top-level examplar whose readings are nearest to its own. Memory and time grow
+with N * partitionSize instead of N^2, at the cost of the top level only seeing the
+partitions through their examplars.
+ */
+public class HierarchicalAffinityPropagation implements AutoCloseable
+{
+    public enum Partitioning
+    {
+        // halving the x/y bounding box along its longer side
+        SPATIAL,
+        // seeded random blocks
+        RANDOM
+    }
+
+    private static final long PARTITION_SEED = 0x5eed;
+
+    // data set
+    private FingerprintSet data;
+    private int numReferencePoints, numAccessPoints;
+
+    // parameters
+    private double gama = 0.36;
+    private double slider;
+    private double preference;
+    private int partitionSize;
+    private Partitioning partitioning;
+    private ConvergencePolicy convergence = new ConvergencePolicy();
+    private SimilarityKernel kernel = SimilarityKernel.best();
+
+    // output
+    private int[][] partitions;
+    private int[] partitionExamplars;
+    private int[] examplars;
+    private int numClusters;
+
+    // parallel execution, everything runs on the calling thread until setParallelism() or setPool() gives it a pool
+    private final SolverPool pool = new SolverPool();
+
+
+    /**
+     * Constructor of the HierarchicalAffinityPropagation class.
+     * @param data reference points and readings of the data set
+     * @param slider double value between 0-1, used on both levels
+     * @param partitionSize largest number of reference points clustered by one dense run
+     * @param partitioning how the reference points are cut into partitions
+     */
+    public HierarchicalAffinityPropagation(FingerprintSet data, double slider, int partitionSize, Partitioning partitioning)
+    {
+        if(partitionSize < 2)
+        {
+            throw new IllegalArgumentException("partitions must hold at least 2 reference points: " + partitionSize);
+        }
+
+        this.data = data;
+        this.numReferencePoints = data.getNumReferencePoints();
+        this.numAccessPoints = data.getNumAccessPoints();
+        this.slider = slider;
+        this.partitionSize = partitionSize;
+        this.partitioning = partitioning;
+    }
+
+
+    public int getNumClusters()
+    {
+        return numClusters;
+    }
+
+
+    public int getNumReferencePoints()
+    {
+        return numReferencePoints;
+    }
+
+
+    public double getPreference()
+    {
+        return preference;
+    }
+
+
+    /**
+     * @return returns the number of partitions of the last apCluster()
+     */
+    public int getNumPartitions()
+    {
+        return (partitions == null) ? 0 : partitions.length;
+    }
+
+
+    /**
+     * @return returns the number of examplars the partitions found, which the top level clusters
+     */
+    public int getNumPartitionExamplars()
+    {
+        return (partitionExamplars == null) ? 0 : partitionExamplars.length;
+    }
+
+
+    /**
+     * @return returns the index of the top-level examplar of every reference point
+     */
+    public int[] getExamplars()
+    {
+        return examplars.clone();
+    }
+
+
+    /**
+     * sets when the runs on both levels stop, see ConvergencePolicy
+     * @param convergence the policy used by the following calls of apCluster()
+     */
+    public void setConvergencePolicy(ConvergencePolicy convergence)
+    {
+        this.convergence = convergence;
+    }
+
+
+    /**
+     * sets how many threads the partitions are spread over
+     * @param parallelism number of threads, 1 runs everything on the calling thread
+     */
+    public void setParallelism(int parallelism)
+    {
+        pool.setParallelism(parallelism);
+    }
+
+
+    /**
+     * makes apCluster() run on the given pool
+     * @param pool a ForkJoinPool shared with the caller, or null to run on the calling thread
+     */
+    public void setPool(ForkJoinPool pool)
+    {
+        this.pool.set(pool);
+    }
+
+
+    /**
+     * shuts down the pool if setParallelism() made it, a pool given to setPool() is left to the caller; the solver
+     * runs on the calling thread afterwards
+     */
+    @Override
+    public void close()
+    {
+        pool.close();
+    }
+
+
+    /**
+     * does the actual clustering: the partitions, then their examplars, then the reassignment
+     */
+    public void apCluster()
+    {
+        final int[][] parts = partition();
+        final int[][] found = new int[parts.length][];
+
+        preference = OrderStatistics.pairwiseQuantile(data.getFingerprints(), numReferencePoints, numAccessPoints, slider,
+                                                      kernel) * gama;
+
+        // every partition runs on one thread, the partitions are what is spread over the pool
+        ParallelRange.run(pool.get(), parts.length, (from, to) ->
+        {
+            for(int p = from; p < to; p += 1)
+            {
+                found[p] = cluster(parts[p], null, null);
+            }
+        });
+
+        // how many points every partition examplar stands for
+        int[] members = new int[numReferencePoints];
+
+        for(int[] each : found)
+        {
+            for(int examplar : each)
+            {
+                members[examplar] += 1;
+            }
+        }
+
+        int count = 0;
+
+        for(int i = 0; i < numReferencePoints; i += 1)
+        {
+            count += (members[i] > 0) ? 1 : 0;
+        }
+
+        partitions = parts;
+        partitionExamplars = new int[count];
+        double[] weights = new double[count];
+        count = 0;
+
+        for(int i = 0; i < numReferencePoints; i += 1)
+        {
+            if(members[i] > 0)
+            {
+                partitionExamplars[count] = i;
+                weights[count] = members[i];
+                count += 1;
+            }
+        }
+
+        // the top level, whose rows are spread over the pool
+        int[] top = distinct(cluster(partitionExamplars, weights, pool.get()));
+
+        reassign(top);
+    }
+
+
+    /**
+     * cuts the reference points into partitions of at most partitionSize points
+     * @return returns the indices of the reference points of every partition, each in increasing order
+     */
+    private int[][] partition()
+    {
+        int n = numReferencePoints;
+        Integer[] order = new Integer[n];
+        List<int[]> parts = new ArrayList<int[]>();
+
+        for(int i = 0; i < n; i += 1)
+        {
+            order[i] = i;
+        }
+
+        if(partitioning == Partitioning.RANDOM)
+        {
+            Collections.shuffle(Arrays.asList(order), new Random(PARTITION_SEED));
+
+            for(int from = 0; from < n; from += partitionSize)
+            {
+                parts.add(indices(order, from, Math.min(n, from + partitionSize)));
+            }
+        }
+
+        else
+        {
+            split(order, 0, n, parts);
+        }
+
+        return parts.toArray(new int[parts.size()][]);
+    }
+
+
+    /**
+     * halves order[from, to) along the longer side of its bounding box until every part is small enough
+     */
+    private void split(Integer[] order, int from, int to, List<int[]> parts)
+    {
+        ReferencePoint[] points = data.getPoints();
+
+        if(to - from <= partitionSize)
+        {
+            parts.add(indices(order, from, to));
+            return;
+        }
+
+        double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+
+        for(int i = from; i < to; i += 1)
+        {
+            ReferencePoint point = points[order[i]];
+            minX = Math.min(minX, point.x);
+            maxX = Math.max(maxX, point.x);
+            minY = Math.min(minY, point.y);
+            maxY = Math.max(maxY, point.y);
+        }
+
+        // ties are broken by index, so the split does not depend on the sort
+        Comparator<Integer> along = (maxX - minX >= maxY - minY)
+            ? Comparator.comparingDouble((Integer i) -> points[i].x).thenComparingInt(i -> i)
+            : Comparator.comparingDouble((Integer i) -> points[i].y).thenComparingInt(i -> i);
+
+        Arrays.sort(order, from, to, along);
+
+        int middle = (from + to) >>> 1;
+        split(order, from, middle, parts);
+        split(order, middle, to, parts);
+    }
+
+
+    private static int[] indices(Integer[] order, int from, int to)
+    {
+        int[] part = new int[to - from];
+
+        for(int i = from; i < to; i += 1)
+        {
+            part[i - from] = order[i];
+        }
+
+        Arrays.sort(part);
+
+        return part;
+    }
+
+
+    /**
+     * runs a dense affinity propagation over some of the reference points
+     * @param subset indices of the reference points
+     * @param weights number of points every point of the subset stands for, or null for one each
+     * @param rows pool to spread the rows of the run over, or null
+     * @return returns the index, into the whole data set, of the examplar of every point of the subset
+     */
+    private int[] cluster(int[] subset, double[] weights, ForkJoinPool rows)
+    {
+        int m = numAccessPoints, size = subset.length;
+        int[] examplars = new int[size];
+
+        if(size < 2)
+        {
+            return subset.clone();
+        }
+
+        // the solver keeps its examplars in the reference points, so every run gets points of its own
+        double[] readings = new double[size * m];
+        ReferencePoint[] points = new ReferencePoint[size];
+
+        for(int i = 0; i < size; i += 1)
+        {
+            ReferencePoint point = data.getPoints()[subset[i]];
+            System.arraycopy(data.getFingerprints(), subset[i] * m, readings, i * m, m);
+            points[i] = new ReferencePoint(point.x, point.y, readings, i * m, m);
+            points[i].orientation = point.orientation;
+        }
+
+        // the shared preference is set before the similarities are built, so the solver never selects one of its own
+        AffinityPropagation ap = new AffinityPropagation(slider);
+        ap.setPreference(preference);
+        ap.setConvergencePolicy(convergence);
+        ap.setPool(rows);
+        ap.load(new FingerprintSet(data.getFilename(), data.getSourceDeviceModel(), data.getBuilding(), data.getFloor(),
+                                   points, readings, m, null));
+
+        if(weights != null)
+        {
+            ap.setRowWeights(weights);
+        }
+
+        ap.apCluster();
+
+        int[] local = ap.getExamplars();
+
+        for(int i = 0; i < size; i += 1)
+        {
+            // a point without an examplar stands for itself
+            examplars[i] = subset[(local[i] >= 0) ? local[i] : i];
+        }
+
+        return examplars;
+    }
+
+
+    /**
+     * @return returns the distinct values of examplars, in increasing order
+     */
+    private static int[] distinct(int[] examplars)
+    {
+        int[] sorted = examplars.clone();
+        int count = 0;
+
+        Arrays.sort(sorted);
+
+        for(int i = 0; i < sorted.length; i += 1)
+        {
+            if(i == 0 || sorted[i] != sorted[i - 1])
+            {
+                sorted[count] = sorted[i];
+                count += 1;
+            }
+        }
+
+        return Arrays.copyOf(sorted, count);
+    }
+
+
+    /**
+     * assigns every reference point to the top-level examplar whose readings are nearest, the examplars to themselves
+     * @param top indices of the top-level examplars, in increasing order
+     */
+    private void reassign(final int[] top)
+    {
+        final int m = numAccessPoints;
+        final double[] readings = data.getFingerprints();
+        final double[] norms = SimilarityBuilder.norms(readings, numReferencePoints, m, kernel);
+        final int[] result = new int[numReferencePoints];
+
+        ParallelRange.run(pool.get(), numReferencePoints, (from, to) ->
+        {
+            for(int i = from; i < to; i += 1)
+            {
+                double similarity, nearest = -1.0 * Double.MAX_VALUE;
+                int examplar = top[0];
+
+                for(int k : top)
+                {
+                    similarity = (k == i) ? 1.0 : SimilarityBuilder.similarity(readings, m, norms, Math.min(i, k), Math.max(i, k),
+                                                                                kernel);
+
+                    if(similarity > nearest)
+                    {
+                        nearest = similarity;
+                        examplar = k;
+                    }
+                }
+
+                result[i] = examplar;
+            }
+        });
+
+        examplars = result;
+        numClusters = top.length;
+    }
+}
@@ -0,0 +1,86 @@
+import jdk.jfr.*;
+
+
+/*
+The JFR event committed by AffinityPropagation.apCluster() after every iteration while a
+flight recording is running, for instance one started with -XX:StartFlightRecording or
+jcmd <pid> JFR.start. Whether it is enabled is looked up once per iteration in the cached
+event type, without creating an event, so a run that is not recorded allocates nothing
+for it.
+ */
+@Name("AffinityPropagation.Iteration")
+@Label("Affinity Propagation Iteration")
+@Category("Affinity Propagation")
+@Description("Message passing phases, examplars and message changes of one iteration")
+class IterationEvent extends Event
+{
+    private static final EventType TYPE = EventType.getEventType(IterationEvent.class);
+
+    @Label("Iteration")
+    int iteration;
+
+    @Label("Reference Points")
+    int referencePoints;
+
+    @Label("Responsibility Phase")
+    @Timespan(Timespan.NANOSECONDS)
+    long responsibilityTime;
+
+    @Label("Availability Phase")
+    @Timespan(Timespan.NANOSECONDS)
+    long availabilityTime;
+
+    @Label("Examplar Phase")
+    @Timespan(Timespan.NANOSECONDS)
+    long examplarTime;
+
+    @Label("Examplars")
+    int examplars;
+
+    @Label("Label Changes")
+    int labelChanges;
+
+    @Label("Max Message Change")
+    double maxMessageChange;
+
+    @Label("Net Similarity")
+    double netSimilarity;
+
+
+    /**
+     * @return returns a started event if a recording has the event enabled, null otherwise
+     */
+    static IterationEvent start()
+    {
+        if(TYPE.isEnabled() == false)
+        {
+            return null;
+        }
+
+        IterationEvent event = new IterationEvent();
+        event.begin();
+
+        return event;
+    }
+
+
+    /**
+     * fills in the statistics of the iteration and commits the event
+     * @param stats what the iteration found
+     * @param referencePoints number of reference points of the solver
+     */
+    void commit(IterationStats stats, int referencePoints)
+    {
+        this.iteration = stats.getIteration();
+        this.referencePoints = referencePoints;
+        this.responsibilityTime = stats.getResponsibilityNanos();
+        this.availabilityTime = stats.getAvailabilityNanos();
+        this.examplarTime = stats.getExamplarNanos();
+        this.examplars = stats.getNumExamplars();
+        this.labelChanges = stats.getLabelChanges();
+        this.maxMessageChange = stats.getMaxMessageChange();
+        this.netSimilarity = stats.getNetSimilarity();
+        end();
+        commit();
+    }
+}
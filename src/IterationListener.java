@@ -0,0 +1,13 @@
+/*
+Called by AffinityPropagation.apCluster() after every iteration, on the thread running
+the clustering and before it decides whether to stop. A listener sees the iteration
+through an IterationStats and must not change the solver; a slow listener slows the
+run down by exactly the time it takes.
+ */
+public interface IterationListener
+{
+    /**
+     * @param stats timings, examplars, label changes and message changes of the iteration that just ended
+     */
+    void iterationDone(IterationStats stats);
+}
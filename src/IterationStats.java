@@ -0,0 +1,98 @@
+/*
+What one iteration of AffinityPropagation.apCluster() did: how long each of its phases
+took, how many examplars the reference points chose, how many of them changed their
+examplar, the largest change of a message and the net similarity of the labels. Only
+created while the solver is instrumented, see AffinityPropagation.addIterationListener().
+ */
+public class IterationStats
+{
+    private final int iteration;
+    private final long responsibilityNanos, availabilityNanos, examplarNanos;
+    private final int numExamplars, labelChanges;
+    private final double maxMessageChange, netSimilarity;
+
+
+    IterationStats(int iteration, long responsibilityNanos, long availabilityNanos, long examplarNanos,
+                   int numExamplars, int labelChanges, double maxMessageChange, double netSimilarity)
+    {
+        this.iteration = iteration;
+        this.responsibilityNanos = responsibilityNanos;
+        this.availabilityNanos = availabilityNanos;
+        this.examplarNanos = examplarNanos;
+        this.numExamplars = numExamplars;
+        this.labelChanges = labelChanges;
+        this.maxMessageChange = maxMessageChange;
+        this.netSimilarity = netSimilarity;
+    }
+
+
+    /**
+     * @return returns the number of the iteration, counted since the data set was loaded or the solver was reset
+     */
+    public int getIteration()
+    {
+        return iteration;
+    }
+
+
+    public long getResponsibilityNanos()
+    {
+        return responsibilityNanos;
+    }
+
+
+    public long getAvailabilityNanos()
+    {
+        return availabilityNanos;
+    }
+
+
+    public long getExamplarNanos()
+    {
+        return examplarNanos;
+    }
+
+
+    /**
+     * @return returns the number of distinct examplars the reference points chose
+     */
+    public int getNumExamplars()
+    {
+        return numExamplars;
+    }
+
+
+    /**
+     * @return returns the number of reference points whose examplar changed in this iteration
+     */
+    public int getLabelChanges()
+    {
+        return labelChanges;
+    }
+
+
+    /**
+     * @return returns the largest change of a responsibility or availability in this iteration
+     */
+    public double getMaxMessageChange()
+    {
+        return maxMessageChange;
+    }
+
+
+    /**
+     * @return returns the sum of s(i,e(i)) over every reference point i and its current examplar e(i)
+     */
+    public double getNetSimilarity()
+    {
+        return netSimilarity;
+    }
+
+
+    public String toString()
+    {
+        return "iteration " + iteration + ": " + numExamplars + " examplars, " + labelChanges + " label changes, max change "
+               + maxMessageChange + ", net similarity " + netSimilarity + ", phases " + responsibilityNanos / 1000 + "/"
+               + availabilityNanos / 1000 + "/" + examplarNanos / 1000 + " us";
+    }
+}
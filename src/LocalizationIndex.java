@@ -0,0 +1,254 @@
+import java.util.concurrent.*;
+
+
+/*
+Locates live RSS readings with the clusters of a clustering. A query is first compared to
+the examplar of every cluster, and the k nearest neighbours are then searched only among
+the members of the clusters whose examplars came out nearest; the estimate is the mean of
+the coordinates of those neighbours. With C clusters of about N / C points a query reads
+(C + probes * N / C) rows of readings instead of all N.
+
+Everything is copied into flat arrays when the index is built, the members of a cluster
+stored next to each other, and nothing is written afterwards, so any number of threads
+can query one index at the same time. Reference points without an examplar are left out.
+ */
+public class LocalizationIndex
+{
+    private final int numAccessPoints, numClusters, k, probes;
+    private final SimilarityKernel kernel = SimilarityKernel.best();
+
+    // readings of the examplars, one row per cluster
+    private final double[] examplarReadings;
+
+    // readings and coordinates of the members, cluster after cluster; clusterStart[c] is the first member of cluster c
+    private final double[] memberReadings;
+    private final double[] memberX, memberY;
+    private final int[] clusterStart;
+
+
+    /**
+     * Constructor of the LocalizationIndex class.
+     * @param result clustering the index is built from
+     * @param k number of nearest reference points averaged by a query
+     * @param probes number of clusters, nearest examplars first, searched by a query
+     */
+    public LocalizationIndex(ClusteringResult result, int k, int probes)
+    {
+        FingerprintSet data = result.getData();
+        ClusterIndex clusters = result.getClusterIndex();
+        ReferencePoint[] points = data.getPoints();
+        double[] readings = data.getFingerprints();
+        int m = data.getNumAccessPoints(), count = 0;
+
+        if(k < 1 || probes < 1)
+        {
+            throw new IllegalArgumentException("a query needs at least one neighbour and one cluster: k " + k
+                                               + ", probes " + probes);
+        }
+
+        if(clusters.getNumClusters() == 0)
+        {
+            throw new IllegalArgumentException("the clustering has no clusters");
+        }
+
+        this.numAccessPoints = m;
+        this.numClusters = clusters.getNumClusters();
+        this.k = k;
+        this.probes = Math.min(probes, numClusters);
+
+        examplarReadings = new double[numClusters * m];
+        clusterStart = new int[numClusters + 1];
+
+        for(int c = 0; c < numClusters; c += 1)
+        {
+            System.arraycopy(readings, clusters.getExamplar(c) * m, examplarReadings, c * m, m);
+            count += clusters.getSize(c);
+            clusterStart[c + 1] = count;
+        }
+
+        memberReadings = new double[count * m];
+        memberX = new double[count];
+        memberY = new double[count];
+
+        for(int c = 0; c < numClusters; c += 1)
+        {
+            for(int i = 0; i < clusters.getSize(c); i += 1)
+            {
+                int point = clusters.getMember(c, i), slot = clusterStart[c] + i;
+
+                System.arraycopy(readings, point * m, memberReadings, slot * m, m);
+                memberX[slot] = points[point].x;
+                memberY[slot] = points[point].y;
+            }
+        }
+    }
+
+
+    public int getNumClusters()
+    {
+        return numClusters;
+    }
+
+
+    public int getNumAccessPoints()
+    {
+        return numAccessPoints;
+    }
+
+
+    /**
+     * estimates where one set of readings was taken
+     * @param rss one reading per access point, in the order of the data set
+     * @return returns the estimated {x, y}
+     */
+    public double[] locate(double[] rss)
+    {
+        double[] location = new double[2];
+
+        if(rss.length != numAccessPoints)
+        {
+            throw new IllegalArgumentException("expected " + numAccessPoints + " readings, got " + rss.length);
+        }
+
+        locate(rss, 0, location, 0, new Scratch(k, probes));
+
+        return location;
+    }
+
+
+    /**
+     * estimates where every set of readings of a batch was taken
+     * @param queries the readings of the queries, one row of getNumAccessPoints() values after another
+     * @param pool pool to spread the queries over, or null to run them on the calling thread
+     * @return returns the estimated x and y of every query, {x0, y0, x1, y1, ...}
+     */
+    public double[] locate(final double[] queries, ForkJoinPool pool)
+    {
+        final int m = numAccessPoints, count = queries.length / m;
+        final double[] locations = new double[2 * count];
+
+        if(queries.length % m != 0)
+        {
+            throw new IllegalArgumentException(queries.length + " readings are not a whole number of queries of " + m);
+        }
+
+        ParallelRange.run(pool, count, (from, to) ->
+        {
+            Scratch scratch = new Scratch(k, probes);
+
+            for(int q = from; q < to; q += 1)
+            {
+                locate(queries, q * m, locations, 2 * q, scratch);
+            }
+        });
+
+        return locations;
+    }
+
+
+    /**
+     * the two stages of a query: the nearest examplars, then the nearest members of their clusters
+     */
+    private void locate(double[] queries, int offset, double[] locations, int at, Scratch scratch)
+    {
+        int m = numAccessPoints;
+        double x = 0.0, y = 0.0;
+
+        scratch.clusters.clear();
+
+        for(int c = 0; c < numClusters; c += 1)
+        {
+            scratch.clusters.offer(kernel.squaredDistance(queries, offset, examplarReadings, c * m, m), c);
+        }
+
+        scratch.neighbours.clear();
+
+        for(int p = 0; p < scratch.clusters.size; p += 1)
+        {
+            int c = scratch.clusters.items[p];
+
+            for(int slot = clusterStart[c]; slot < clusterStart[c + 1]; slot += 1)
+            {
+                scratch.neighbours.offer(kernel.squaredDistance(queries, offset, memberReadings, slot * m, m), slot);
+            }
+        }
+
+        for(int i = 0; i < scratch.neighbours.size; i += 1)
+        {
+            x += memberX[scratch.neighbours.items[i]];
+            y += memberY[scratch.neighbours.items[i]];
+        }
+
+        locations[at] = x / scratch.neighbours.size;
+        locations[at + 1] = y / scratch.neighbours.size;
+    }
+
+
+    /*
+    The per-thread working memory of queries: the nearest clusters and the nearest members.
+     */
+    private static class Scratch
+    {
+        final Nearest clusters, neighbours;
+
+        Scratch(int k, int probes)
+        {
+            clusters = new Nearest(probes);
+            neighbours = new Nearest(k);
+        }
+    }
+
+
+    /*
+    The items with the smallest distances offered so far, at most capacity of them, kept
+    sorted by distance with insertion; capacity is small, so this beats a heap. Ties keep
+    the item offered first, which makes a query deterministic.
+     */
+    private static class Nearest
+    {
+        final double[] distances;
+        final int[] items;
+        int size;
+
+        Nearest(int capacity)
+        {
+            distances = new double[capacity];
+            items = new int[capacity];
+        }
+
+        void clear()
+        {
+            size = 0;
+        }
+
+        void offer(double distance, int item)
+        {
+            int i = size;
+
+            if(size == distances.length)
+            {
+                if(distance >= distances[size - 1])
+                {
+                    return;
+                }
+
+                i -= 1;
+            }
+
+            else
+            {
+                size += 1;
+            }
+
+            while(i > 0 && distances[i - 1] > distance)
+            {
+                distances[i] = distances[i - 1];
+                items[i] = items[i - 1];
+                i -= 1;
+            }
+
+            distances[i] = distance;
+            items[i] = item;
+        }
+    }
+}
@@ -0,0 +1,349 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/*
+Affinity propagation for data sets whose N x N matrices do not fit in the heap. The
+similarity, responsibility and availability matrices live in memory-mapped files in a
+working directory, so the heap only holds a few rows per thread plus O(N) vectors. Every
+phase walks the rows in order, which streams each file from front to back; the message
+arithmetic is the same as in AffinityPropagation. The similarity file is written on the
+first call of apCluster(), on the pool set by then.
+ */
+public class MappedAffinityPropagation implements Closeable
+{
+    // data set
+    private FingerprintSet data;
+    private int numReferencePoints, numAccessPoints;
+
+    // affinity propagation input, the similarity file is written once, when built turns true
+    private MappedMatrix similarities;
+    private boolean built;
+    private double gama = 0.36;
+    private double dampingFactor = 0.5;
+    private double slider;
+    private double preference;
+    private SimilarityKernel kernel = SimilarityKernel.best();
+
+    // affinity propagation parameters
+    private MappedMatrix responsibilities;
+    private MappedMatrix availablities;
+    private double[] positiveSums;
+    private double[] selfResponsibilities;
+
+    // affinity propagation output
+    private int[] examplars;
+    private int[] previousExamplars;
+    private int numClusters;
+
+    // convergence, rowChanges holds the largest message change of every row in the last iteration
+    private ConvergencePolicy convergence = new ConvergencePolicy();
+    private ConvergencePolicy.StopReason stopReason;
+    private int iterations;
+    private double[] rowChanges;
+
+    // parallel execution, every phase runs on the calling thread until setParallelism() or setPool() gives it a pool
+    private final SolverPool pool = new SolverPool();
+
+
+    /**
+     * Constructor of the MappedAffinityPropagation class.
+     * @param data reference points and readings of the data set
+     * @param slider double value between 0-1
+     * @param directory directory the matrix files are created in
+     * @throws IOException if the matrix files cannot be created
+     */
+    public MappedAffinityPropagation(FingerprintSet data, double slider, File directory) throws IOException
+    {
+        this.data = data;
+        this.numReferencePoints = data.getNumReferencePoints();
+        this.numAccessPoints = data.getNumAccessPoints();
+        this.slider = slider;
+
+        String prefix = "ap-" + Long.toHexString(System.nanoTime());
+        similarities = new MappedMatrix(new File(directory, prefix + "-similarities.bin"), numReferencePoints);
+        responsibilities = new MappedMatrix(new File(directory, prefix + "-responsibilities.bin"), numReferencePoints);
+        availablities = new MappedMatrix(new File(directory, prefix + "-availabilities.bin"), numReferencePoints);
+
+        positiveSums = new double[numReferencePoints];
+        selfResponsibilities = new double[numReferencePoints];
+        examplars = new int[numReferencePoints];
+        previousExamplars = new int[numReferencePoints];
+        rowChanges = new double[numReferencePoints];
+        Arrays.fill(examplars, -1);
+    }
+
+
+    public int getNumClusters()
+    {
+        return numClusters;
+    }
+
+
+    public int getNumReferencePoints()
+    {
+        return numReferencePoints;
+    }
+
+
+    /**
+     * @return returns the preference of every reference point; writes the similarity file if apCluster() has not
+     */
+    public double getPreference()
+    {
+        setSimilarities();
+        return preference;
+    }
+
+
+    public int getIterations()
+    {
+        return iterations;
+    }
+
+
+    /**
+     * @return returns why the last call of apCluster() stopped, or null if it has not been called
+     */
+    public ConvergencePolicy.StopReason getStopReason()
+    {
+        return stopReason;
+    }
+
+
+    /**
+     * @return returns the index of the examplar of every reference point
+     */
+    public int[] getExamplars()
+    {
+        return examplars.clone();
+    }
+
+
+    /**
+     * sets when apCluster() stops, see ConvergencePolicy
+     * @param convergence the policy used by the following calls of apCluster()
+     */
+    public void setConvergencePolicy(ConvergencePolicy convergence)
+    {
+        this.convergence = convergence;
+    }
+
+
+    /**
+     * sets how many threads apCluster() splits its rows and columns over
+     * @param parallelism number of threads, 1 runs everything on the calling thread
+     */
+    public void setParallelism(int parallelism)
+    {
+        pool.setParallelism(parallelism);
+    }
+
+
+    /**
+     * makes apCluster() run its phases on the given pool
+     * @param pool a ForkJoinPool shared with the caller, or null to run on the calling thread
+     */
+    public void setPool(ForkJoinPool pool)
+    {
+        this.pool.set(pool);
+    }
+
+
+    /**
+     * writes the similarity matrix one row at a time, with the preference on the main diagonal, unless it has been
+     * written already. the preference is found without the matrix (see OrderStatistics.pairwiseQuantile), so the
+     * file is written only once
+     */
+    private void setSimilarities()
+    {
+        if(built == true)
+        {
+            return;
+        }
+
+        final int n = numReferencePoints, m = numAccessPoints;
+        final double[] fingerprints = data.getFingerprints();
+        final double[] norms = SimilarityBuilder.norms(fingerprints, n, m, kernel);
+
+        preference = OrderStatistics.pairwiseQuantile(fingerprints, n, m, slider, kernel) * gama;
+
+        ParallelRange.run(pool.get(), n, (from, to) ->
+        {
+            double[] row = new double[n];
+
+            for(int i = from; i < to; i += 1)
+            {
+                for(int j = 0; j < n; j += 1)
+                {
+                    // the lower index first, so that s(i,j) and s(j,i) are the same value like in the dense matrix
+                    row[j] = (i == j) ? preference
+                                      : SimilarityBuilder.similarity(fingerprints, m, norms, Math.min(i, j), Math.max(i, j), kernel);
+                }
+
+                similarities.setRow(i, row);
+            }
+        });
+
+        built = true;
+    }
+
+
+    /**
+     * updates all pairwise responsibility messages, streaming the rows of all three matrices
+     */
+    private void updateResponsibilities()
+    {
+        final int n = numReferencePoints;
+
+        ParallelRange.run(pool.get(), n, (from, to) ->
+        {
+            double[] similarity = new double[n], availability = new double[n], responsibility = new double[n];
+
+            for(int i = from; i < to; i += 1)
+            {
+                similarities.getRow(i, similarity);
+                availablities.getRow(i, availability);
+                responsibilities.getRow(i, responsibility);
+                rowChanges[i] = MessageKernels.responsibilities(similarity, availability, responsibility, 0, n, dampingFactor);
+                responsibilities.setRow(i, responsibility);
+            }
+        });
+    }
+
+
+    /**
+     * updates all pairwise availability messages: one streaming pass for the column sums, one for the rows
+     */
+    private void updateAvailabilities()
+    {
+        final int n = numReferencePoints;
+
+        // every chunk of columns streams the matching part of every row, in row order
+        ParallelRange.run(pool.get(), n, (from, to) ->
+        {
+            double[] responsibility = new double[to - from];
+            Arrays.fill(positiveSums, from, to, 0.0);
+
+            for(int i = 0; i < n; i += 1)
+            {
+                responsibilities.getRow(i, from, to, responsibility);
+                MessageKernels.positiveSums(responsibility, -from, i, from, to, positiveSums, selfResponsibilities);
+            }
+        });
+
+        ParallelRange.run(pool.get(), n, (from, to) ->
+        {
+            double[] responsibility = new double[n], availability = new double[n];
+
+            for(int i = from; i < to; i += 1)
+            {
+                responsibilities.getRow(i, responsibility);
+                availablities.getRow(i, availability);
+                rowChanges[i] = Math.max(rowChanges[i], MessageKernels.availabilities(responsibility, availability, 0, i, n,
+                                                                                      positiveSums, selfResponsibilities, dampingFactor));
+                availablities.setRow(i, availability);
+                examplars[i] = MessageKernels.examplar(availability, responsibility, 0, n);
+            }
+        });
+    }
+
+
+    /**
+     * does the actual clustering, until the convergence policy stops it (see getStopReason()). the run goes on
+     * from the current messages, and the iteration cap of the policy applies to each call
+     * @return returns the examplars and clusters found, with the statistics of the run
+     */
+    public ClusteringResult apCluster()
+    {
+        int unchanged = 0, start = iterations;
+        double maxMessageChange = 0.0;
+        int[] swap;
+        stopReason = null;
+        setSimilarities();
+
+        while(stopReason == null)
+        {
+            iterations += 1;
+            swap = previousExamplars;
+            previousExamplars = examplars;
+            examplars = swap;
+
+            updateResponsibilities();
+            updateAvailabilities();
+
+            if(Arrays.equals(examplars, previousExamplars) == true)
+            {
+                unchanged += 1;
+            }
+
+            else
+            {
+                unchanged = 0;
+            }
+
+            maxMessageChange = MessageKernels.max(rowChanges);
+            stopReason = convergence.check(iterations - start, unchanged, maxMessageChange);
+        }
+
+        setNumClusters();
+
+        return new ClusteringResult(data, new ClusterIndex(examplars), preference, netSimilarity(), iterations, stopReason,
+                                    maxMessageChange);
+    }
+
+
+    /**
+     * @return returns the sum of s(i,e(i)) over every reference point i with an examplar e(i), read back from the
+     * similarity file one value at a time
+     */
+    private double netSimilarity()
+    {
+        double[] similarity = new double[1];
+        double netSimilarity = 0.0;
+
+        for(int i = 0; i < numReferencePoints; i += 1)
+        {
+            if(examplars[i] >= 0)
+            {
+                similarities.getRow(i, examplars[i], examplars[i] + 1, similarity);
+                netSimilarity += similarity[0];
+            }
+        }
+
+        return netSimilarity;
+    }
+
+
+    /**
+     * finds out and sets the number of distinct examplars
+     */
+    private void setNumClusters()
+    {
+        boolean[] seen = new boolean[numReferencePoints];
+        numClusters = 0;
+
+        for(int examplar : examplars)
+        {
+            if(examplar >= 0 && seen[examplar] == false)
+            {
+                seen[examplar] = true;
+                numClusters += 1;
+            }
+        }
+    }
+
+
+    /**
+     * closes and deletes the matrix files, and shuts down the pool if setParallelism() made it
+     */
+    @Override
+    public void close() throws IOException
+    {
+        pool.close();
+        similarities.close();
+        responsibilities.close();
+        availablities.close();
+    }
+}
@@ -0,0 +1,102 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/*
+An n x n matrix of doubles kept in a memory-mapped file rather than on the heap. A single
+mapping cannot exceed 2 GB, so the matrix is cut into tiles of whole rows, each mapped on
+its own; walking the rows in order walks the file from front to back. A new file reads as
+all zeros. Rows are copied in and out with bulk gets and puts, so the per-row kernels can
+work on plain arrays.
+ */
+class MappedMatrix implements Closeable
+{
+    // the largest mapping is kept well under the 2 GB limit of a single MappedByteBuffer
+    private static final long TILE_BYTES = 1L << 30;
+
+    private final File file;
+    private final RandomAccessFile access;
+    private final int n;
+    private final int rowsPerTile;
+    private final DoubleBuffer[] tiles;
+
+
+    /**
+     * creates (or truncates) the file and maps it
+     * @param file file backing the matrix, deleted again by close()
+     * @param n number of rows and columns
+     * @throws IOException if the file cannot be created or mapped
+     */
+    MappedMatrix(File file, int n) throws IOException
+    {
+        this.file = file;
+        this.n = n;
+        this.rowsPerTile = (int) Math.max(1, Math.min(n, TILE_BYTES / (8L * Math.max(1, n))));
+        this.access = new RandomAccessFile(file, "rw");
+        this.access.setLength(0);
+        this.access.setLength(8L * n * n);
+
+        FileChannel channel = access.getChannel();
+        tiles = new DoubleBuffer[(n + rowsPerTile - 1) / rowsPerTile];
+
+        for(int t = 0; t < tiles.length; t += 1)
+        {
+            long start = 8L * n * t * rowsPerTile;
+            long rows = Math.min(rowsPerTile, n - (long) t * rowsPerTile);
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_WRITE, start, 8L * n * rows);
+            tiles[t] = bytes.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        }
+    }
+
+
+    int size()
+    {
+        return n;
+    }
+
+
+    /**
+     * copies the columns [from, to) of row i into values[0, to - from)
+     */
+    void getRow(int i, int from, int to, double[] values)
+    {
+        DoubleBuffer tile = tiles[i / rowsPerTile].duplicate();
+        tile.position((i % rowsPerTile) * n + from);
+        tile.get(values, 0, to - from);
+    }
+
+
+    /**
+     * copies row i into values[0, n)
+     */
+    void getRow(int i, double[] values)
+    {
+        getRow(i, 0, n, values);
+    }
+
+
+    /**
+     * copies values[0, n) into row i
+     */
+    void setRow(int i, double[] values)
+    {
+        DoubleBuffer tile = tiles[i / rowsPerTile].duplicate();
+        tile.position((i % rowsPerTile) * n);
+        tile.put(values, 0, n);
+    }
+
+
+    /**
+     * closes the file and deletes it; the mapping itself is released when it is garbage collected
+     */
+    @Override
+    public void close() throws IOException
+    {
+        access.close();
+
+        if(file.delete() == false && file.exists())
+        {
+            file.deleteOnExit();
+        }
+    }
+}
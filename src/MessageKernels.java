@@ -0,0 +1,335 @@
+/*
+The per-row arithmetic of affinity propagation, shared by the solvers whatever they keep
+their N x N matrices in. Every method works on one row of length n that starts at offset
+in its array, so a row can be read straight out of a flat matrix or copied into a scratch
+array first.
+ */
+class MessageKernels
+{
+    /**
+     * calculates the responsibility messages of one row from the row's two largest a(i,k) + s(i,k).
+     * the max{a(i,k') + s(i,k')} over k' != k is the row maximum unless k is where that maximum sits,
+     * in which case it is the second largest value
+     * @param similarities similarity row s(i,.)
+     * @param availablities availability row a(i,.)
+     * @param responsibilities responsibility row r(i,.), updated in place
+     * @param offset index of the first value of the row in all three arrays
+     * @param n length of the row
+     * @param dampingFactor weight of the previous responsibility
+     * @return returns the largest change of a responsibility in the row
+     */
+    static double responsibilities(double[] similarities, double[] availablities, double[] responsibilities,
+                                 int offset, int n, double dampingFactor)
+    {
+        return responsibilities(similarities, availablities, responsibilities, offset, -1, 0.0, n, dampingFactor);
+    }
+
+
+    /**
+     * calculates the responsibility messages of one row like the method above, but with s(i,i) taken from
+     * preference instead of the similarity row, so that solvers with different preferences can share one matrix
+     * @param similarities similarity row s(i,.), its value at row is not read
+     * @param availablities availability row a(i,.)
+     * @param responsibilities responsibility row r(i,.), updated in place
+     * @param offset index of the first value of the row in all three arrays
+     * @param row the index i of the row, or -1 to read s(i,i) from the similarity row
+     * @param preference the self similarity s(i,i)
+     * @param n length of the row
+     * @param dampingFactor weight of the previous responsibility
+     * @return returns the largest change of a responsibility in the row
+     */
+    static double responsibilities(double[] similarities, double[] availablities, double[] responsibilities,
+                                   int offset, int row, double preference, int n, double dampingFactor)
+    {
+        double curr, max = -1.0 * Double.MAX_VALUE, second = -1.0 * Double.MAX_VALUE;
+        double updated, change = 0.0;
+        int maxIndex = -1;
+        int k;
+
+        // finding the largest and the second largest a(i,k) + s(i,k) of the row
+        for(k = 0; k < n; k += 1)
+        {
+            curr = availablities[offset + k] + (k == row ? preference : similarities[offset + k]);
+
+            if(curr > max)
+            {
+                second = max;
+                max = curr;
+                maxIndex = k;
+            }
+
+            else if(curr > second)
+            {
+                second = curr;
+            }
+        }
+
+        for(k = 0; k < n; k += 1)
+        {
+            curr = (k == row ? preference : similarities[offset + k]) - (k == maxIndex ? second : max);
+            updated = dampingFactor * responsibilities[offset + k] + (1 - dampingFactor) * curr;
+            change = Math.max(change, Math.abs(updated - responsibilities[offset + k]));
+            responsibilities[offset + k] = updated;
+        }
+
+        return change;
+    }
+
+
+    /**
+     * adds max{0,r(i,k)} of one row to the running column sums of the columns k in [from, to), skipping k == i,
+     * and records r(i,i) if it falls in the range
+     * @param responsibilities responsibility row r(i,.)
+     * @param offset index of r(i,0) in the array
+     * @param row the index i of the row
+     * @param from first column
+     * @param to one past the last column
+     * @param positiveSums running column sums
+     * @param diagonal r(k,k) of every column k
+     */
+    static void positiveSums(double[] responsibilities, int offset, int row, int from, int to,
+                             double[] positiveSums, double[] diagonal)
+    {
+        double curr;
+
+        for(int k = from; k < to; k += 1)
+        {
+            curr = responsibilities[offset + k];
+
+            if(row != k && curr > 0)
+            {
+                positiveSums[k] += curr;
+            }
+        }
+
+        if(row >= from && row < to)
+        {
+            diagonal[row] = responsibilities[offset + row];
+        }
+    }
+
+
+    /**
+     * calculates the availability messages of one row, taking max{0,r(i,k)} back out of the column sums
+     * @param responsibilities responsibility row r(i,.)
+     * @param availablities availability row a(i,.), updated in place
+     * @param offset index of the first value of the row in both arrays
+     * @param row the index i of the row
+     * @param n length of the row
+     * @param positiveSums sum(max{0,r(i',k)}) over every i' not equal to k, for every column k
+     * @param diagonal r(k,k) of every column k
+     * @param dampingFactor weight of the previous availability
+     * @return returns the largest change of an availability in the row
+     */
+    static double availabilities(double[] responsibilities, double[] availablities, int offset, int row, int n,
+                               double[] positiveSums, double[] diagonal, double dampingFactor)
+    {
+        double curr, sum, updated, change = 0.0;
+
+        for(int k = 0; k < n; k += 1)
+        {
+            // this will be the final availability if reference points a and b are the same
+            sum = positiveSums[k];
+
+            if(row != k)
+            {
+                curr = responsibilities[offset + k];
+
+                if(curr > 0)
+                {
+                    sum -= curr;
+                }
+
+                sum += diagonal[k];
+
+                if(sum > 0)
+                {
+                    sum = 0.0;
+                }
+            }
+
+            // to avoid numerical oscillations
+            updated = dampingFactor * availablities[offset + k] + (1 - dampingFactor) * sum;
+            change = Math.max(change, Math.abs(updated - availablities[offset + k]));
+            availablities[offset + k] = updated;
+        }
+
+        return change;
+    }
+
+
+    /**
+     * finds the column of the largest a(i,k) + r(i,k) in one row
+     * @param availablities availability row a(i,.)
+     * @param responsibilities responsibility row r(i,.)
+     * @param offset index of the first value of the row in both arrays
+     * @param n length of the row
+     * @return returns the column of the examplar, or -1 if no value beats -Double.MAX_VALUE
+     */
+    static int examplar(double[] availablities, double[] responsibilities, int offset, int n)
+    {
+        double curr, max = -1.0 * Double.MAX_VALUE;
+        int examplar = -1;
+
+        for(int k = 0; k < n; k += 1)
+        {
+            curr = availablities[offset + k] + responsibilities[offset + k];
+
+            if(curr > max)
+            {
+                max = curr;
+                examplar = k;
+            }
+        }
+
+        return examplar;
+    }
+
+
+    /**
+     * single precision version of responsibilities(), for solvers that keep their matrices in floats. the
+     * arithmetic is done in float as well; this is the scalar loop, VectorSimilarityKernel has the FloatVector one
+     * @return returns the largest change of a responsibility in the row
+     */
+    static double responsibilities(float[] similarities, float[] availablities, float[] responsibilities,
+                                   int offset, int n, float dampingFactor)
+    {
+        float curr, max = -Float.MAX_VALUE, second = -Float.MAX_VALUE;
+        float updated, change = 0.0f;
+        int maxIndex = -1;
+        int k;
+
+        for(k = 0; k < n; k += 1)
+        {
+            curr = availablities[offset + k] + similarities[offset + k];
+
+            if(curr > max)
+            {
+                second = max;
+                max = curr;
+                maxIndex = k;
+            }
+
+            else if(curr > second)
+            {
+                second = curr;
+            }
+        }
+
+        for(k = 0; k < n; k += 1)
+        {
+            curr = similarities[offset + k] - (k == maxIndex ? second : max);
+            updated = dampingFactor * responsibilities[offset + k] + (1 - dampingFactor) * curr;
+            change = Math.max(change, Math.abs(updated - responsibilities[offset + k]));
+            responsibilities[offset + k] = updated;
+        }
+
+        return change;
+    }
+
+
+    /**
+     * single precision version of positiveSums()
+     */
+    static void positiveSums(float[] responsibilities, int offset, int row, int from, int to,
+                             float[] positiveSums, float[] diagonal)
+    {
+        float curr;
+
+        for(int k = from; k < to; k += 1)
+        {
+            curr = responsibilities[offset + k];
+
+            if(row != k && curr > 0)
+            {
+                positiveSums[k] += curr;
+            }
+        }
+
+        if(row >= from && row < to)
+        {
+            diagonal[row] = responsibilities[offset + row];
+        }
+    }
+
+
+    /**
+     * single precision version of availabilities()
+     * @return returns the largest change of an availability in the row
+     */
+    static double availabilities(float[] responsibilities, float[] availablities, int offset, int row, int n,
+                                 float[] positiveSums, float[] diagonal, float dampingFactor)
+    {
+        float curr, sum, updated, change = 0.0f;
+
+        for(int k = 0; k < n; k += 1)
+        {
+            sum = positiveSums[k];
+
+            if(row != k)
+            {
+                curr = responsibilities[offset + k];
+
+                if(curr > 0)
+                {
+                    sum -= curr;
+                }
+
+                sum += diagonal[k];
+
+                if(sum > 0)
+                {
+                    sum = 0.0f;
+                }
+            }
+
+            updated = dampingFactor * availablities[offset + k] + (1 - dampingFactor) * sum;
+            change = Math.max(change, Math.abs(updated - availablities[offset + k]));
+            availablities[offset + k] = updated;
+        }
+
+        return change;
+    }
+
+
+    /**
+     * single precision version of examplar()
+     * @return returns the column of the examplar, or -1 if no value beats -Float.MAX_VALUE
+     */
+    static int examplar(float[] availablities, float[] responsibilities, int offset, int n)
+    {
+        float curr, max = -Float.MAX_VALUE;
+        int examplar = -1;
+
+        for(int k = 0; k < n; k += 1)
+        {
+            curr = availablities[offset + k] + responsibilities[offset + k];
+
+            if(curr > max)
+            {
+                max = curr;
+                examplar = k;
+            }
+        }
+
+        return examplar;
+    }
+
+
+    /**
+     * finds the largest of the message changes returned by the row kernels
+     * @param changes one change per row
+     * @return returns the largest value, 0 for an empty array and NaN if any value is NaN
+     */
+    static double max(double[] changes)
+    {
+        double max = 0.0;
+
+        for(double change : changes)
+        {
+            max = Math.max(max, change);
+        }
+
+        return max;
+    }
+}
@@ -0,0 +1,193 @@
+import java.util.*;
+
+/*
+Finds the k-th smallest value of an array in expected linear time (introselect): quickselect
+with a median of three pivot, which falls back to sorting the part of the array that is
+left once the partitioning has gone deeper than 2 log2(n) without finishing. Also finds
+quantiles of pairwise similarities that are never stored as a matrix.
+ */
+class OrderStatistics
+{
+    // above this many pairs, pairwiseQuantile() estimates from a sample instead
+    static final int PAIR_SAMPLES = 1 << 20;
+    private static final long PAIR_SEED = 0x5eed;
+
+
+    /**
+     * the value of a pair of points, for quantiles over values that are not kept in one double array
+     */
+    interface Pairs
+    {
+        double get(int i, int j);
+    }
+
+
+    /**
+     * finds the slider quantile of the off diagonal values of a symmetric n x n matrix. every value shows up twice,
+     * once above and once below the main diagonal, so the index-th of all of them is the (index / 2)-th of the ones
+     * above the diagonal, and only those are read
+     * @param n number of points
+     * @param slider double value between 0-1
+     * @param values the value of the pair (i, j) for i < j
+     * @return returns the value at the slider quantile, 0 if there are fewer than two points
+     */
+    static double symmetricQuantile(int n, double slider, Pairs values)
+    {
+        long size = (long) n * n - n;
+        double[] candidates = new double[(int) (size / 2)];
+        int added = 0;
+
+        // the index the "shifted median" would have if all off main diagonal elements were sorted
+        int index = (int) Math.min(size - 1, (long) (size * slider)) / 2;
+
+        for(int i = 0; i < n; i += 1)
+        {
+            for(int j = i + 1; j < n; j += 1)
+            {
+                candidates[added] = values.get(i, j);
+                added += 1;
+            }
+        }
+
+        return (candidates.length == 0) ? 0.0 : select(candidates, 0, candidates.length, index);
+    }
+
+
+    /**
+     * finds the slider quantile of the similarities of all pairs of points without storing them as a matrix.
+     * up to PAIR_SAMPLES pairs every similarity is computed and the quantile is exact; above that it is
+     * estimated from PAIR_SAMPLES seeded random pairs, which by the Dvoretzky-Kiefer-Wolfowitz inequality
+     * lands within 0.0027 of the slider quantile with probability at least 1 - 1e-6
+     * @param features flat array with the features of point i at [i * dimension, (i + 1) * dimension)
+     * @param n number of points
+     * @param dimension number of features per point
+     * @param slider double value between 0-1
+     * @param kernel kernel taking the dot products of SimilarityBuilder.similarity()
+     * @return returns the similarity at the slider quantile, 0 if there are fewer than two points
+     */
+    static double pairwiseQuantile(final double[] features, int n, final int dimension, double slider,
+                                   final SimilarityKernel kernel)
+    {
+        long pairs = (long) n * n - n;
+        final double[] norms = SimilarityBuilder.norms(features, n, dimension, kernel);
+        double[] candidates;
+        int index;
+
+        if(pairs <= PAIR_SAMPLES)
+        {
+            return symmetricQuantile(n, slider, (i, j) -> SimilarityBuilder.similarity(features, dimension, norms, i, j, kernel));
+        }
+
+        Random random = new Random(PAIR_SEED);
+        candidates = new double[PAIR_SAMPLES];
+
+        for(int added = 0; added < candidates.length; added += 1)
+        {
+            int i = random.nextInt(n);
+            int j = random.nextInt(n - 1);
+            j = (j >= i) ? j + 1 : j;
+            candidates[added] = SimilarityBuilder.similarity(features, dimension, norms, Math.min(i, j), Math.max(i, j), kernel);
+        }
+
+        index = Math.min(candidates.length - 1, (int) (candidates.length * slider));
+
+        return select(candidates, 0, candidates.length, index);
+    }
+
+
+    /**
+     * finds the k-th smallest value in values[from, to), reordering that part of the array
+     * @param values array of doubles, partially reordered in place
+     * @param from first index of the range
+     * @param to one past the last index of the range
+     * @param k index in [from, to) the value would have if the range were sorted
+     * @return returns the value that sorting the range would put at index k
+     */
+    static double select(double[] values, int from, int to, int k)
+    {
+        int low = from, high = to - 1;
+        int depth = 2 * (32 - Integer.numberOfLeadingZeros(Math.max(1, to - from)));
+
+        while(high > low)
+        {
+            if(depth == 0)
+            {
+                Arrays.sort(values, low, high + 1);
+                return values[k];
+            }
+
+            depth -= 1;
+
+            int pivot = partition(values, low, high);
+
+            if(k < pivot)
+            {
+                high = pivot - 1;
+            }
+
+            else if(k > pivot)
+            {
+                low = pivot + 1;
+            }
+
+            else
+            {
+                return values[k];
+            }
+        }
+
+        return values[k];
+    }
+
+
+    /**
+     * partitions values[low, high] around the median of its first, middle and last value
+     * @return returns the index the pivot ends up at
+     */
+    private static int partition(double[] values, int low, int high)
+    {
+        int middle = (low + high) >>> 1;
+
+        // ordering the three candidates puts the median in the middle
+        if(values[middle] < values[low])
+        {
+            swap(values, low, middle);
+        }
+
+        if(values[high] < values[low])
+        {
+            swap(values, low, high);
+        }
+
+        if(values[high] < values[middle])
+        {
+            swap(values, middle, high);
+        }
+
+        double pivot = values[middle];
+        swap(values, middle, high);
+
+        int store = low;
+
+        for(int i = low; i < high; i += 1)
+        {
+            if(values[i] < pivot)
+            {
+                swap(values, i, store);
+                store += 1;
+            }
+        }
+
+        swap(values, store, high);
+
+        return store;
+    }
+
+
+    private static void swap(double[] values, int a, int b)
+    {
+        double temp = values[a];
+        values[a] = values[b];
+        values[b] = temp;
+    }
+}
@@ -0,0 +1,70 @@
+import java.util.concurrent.*;
+
+/*
+Splits a range of row (or column) indices into chunks and runs them on a ForkJoinPool.
+Every chunk writes only its own rows or columns, so the result does not depend on how
+the range is split or on how many threads run it. run() returns once every chunk is
+done, which is the barrier between two phases of an iteration.
+ */
+class ParallelRange
+{
+    /**
+     * work done on one chunk [from, to) of the range
+     */
+    interface Task
+    {
+        void run(int from, int to);
+    }
+
+
+    private static class RangeAction extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Task task;
+        private final int from, to, grain;
+
+        RangeAction(Task task, int from, int to, int grain)
+        {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if(to - from <= grain)
+            {
+                task.run(from, to);
+            }
+
+            else
+            {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RangeAction(task, from, middle, grain), new RangeAction(task, middle, to, grain));
+            }
+        }
+    }
+
+
+    /**
+     * runs the task over [0, size), on the calling thread if no pool is given
+     * @param pool the pool to run the chunks on, or null
+     * @param size number of indices in the range
+     * @param task work done on one chunk of the range
+     */
+    static void run(ForkJoinPool pool, int size, Task task)
+    {
+        if(pool == null || pool.getParallelism() == 1 || size < 2)
+        {
+            task.run(0, size);
+            return;
+        }
+
+        // a few chunks per thread so that uneven rows still balance out
+        int grain = Math.max(1, size / (pool.getParallelism() * 4));
+        pool.invoke(new RangeAction(task, 0, size, grain));
+    }
+}
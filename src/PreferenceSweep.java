@@ -0,0 +1,336 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/*
+Runs affinity propagation for many slider and gama values over one data set. The
+similarity matrix is built once and shared, read-only, by every run: the preference is
+the only input that differs between runs, and it is handed to the message kernels
+instead of being written onto the diagonal. It is looked up in one sorted copy of the
+similarities instead of being selected again for every value. The runs either go side by
+side on the pool, each with its own messages, or one after another in order of
+preference, each starting from the messages the previous one ended with.
+ */
+public class PreferenceSweep implements AutoCloseable
+{
+    /*
+    What one run of the sweep found.
+     */
+    public static class Result
+    {
+        private final double slider, gama, preference;
+        private final int[] examplars;
+        private final int numClusters;
+        private final double netSimilarity;
+        private final int iterations;
+        private final ConvergencePolicy.StopReason stopReason;
+
+        Result(double slider, double gama, double preference, int[] examplars, int numClusters, double netSimilarity,
+               int iterations, ConvergencePolicy.StopReason stopReason)
+        {
+            this.slider = slider;
+            this.gama = gama;
+            this.preference = preference;
+            this.examplars = examplars;
+            this.numClusters = numClusters;
+            this.netSimilarity = netSimilarity;
+            this.iterations = iterations;
+            this.stopReason = stopReason;
+        }
+
+        public double getSlider()
+        {
+            return slider;
+        }
+
+        public double getGama()
+        {
+            return gama;
+        }
+
+        public double getPreference()
+        {
+            return preference;
+        }
+
+        public int getNumClusters()
+        {
+            return numClusters;
+        }
+
+        /**
+         * @return returns the sum of s(i,e(i)) over every reference point i and its examplar e(i), where an
+         * examplar's similarity to itself is the preference
+         */
+        public double getNetSimilarity()
+        {
+            return netSimilarity;
+        }
+
+        public int getIterations()
+        {
+            return iterations;
+        }
+
+        public ConvergencePolicy.StopReason getStopReason()
+        {
+            return stopReason;
+        }
+
+        /**
+         * @return returns the index of the examplar of every reference point
+         */
+        public int[] getExamplars()
+        {
+            return examplars.clone();
+        }
+
+        public String toString()
+        {
+            return "slider " + slider + ", gama " + gama + ": " + numClusters + " clusters, net similarity " + netSimilarity
+                   + " after " + iterations + " iterations (" + stopReason + ")";
+        }
+    }
+
+    // shared by every run, never written after the constructor
+    private final int numReferencePoints;
+    private final double[] similarities;
+    private final SortedSimilarities sorted;
+
+    private double dampingFactor = 0.5;
+    private ConvergencePolicy convergence = new ConvergencePolicy();
+    private boolean warmStart;
+
+    // parallel execution, everything runs on the calling thread until setParallelism() or setPool() gives it a pool
+    private final SolverPool pool = new SolverPool();
+
+
+    /**
+     * Constructor of the PreferenceSweep class, which builds the similarity matrix of the data set and sorts it.
+     * @param data reference points and readings of the data set
+     */
+    public PreferenceSweep(FingerprintSet data)
+    {
+        int n = data.getNumReferencePoints();
+
+        numReferencePoints = n;
+        similarities = new double[n * n];
+        SimilarityBuilder.build_rows(data.getFingerprints(), n, data.getNumAccessPoints(), similarities,
+                                     SimilarityKernel.best(), null);
+        sorted = new SortedSimilarities(similarities, n);
+    }
+
+
+    public int getNumReferencePoints()
+    {
+        return numReferencePoints;
+    }
+
+
+    /**
+     * sets when every run stops, see ConvergencePolicy
+     * @param convergence the policy used by the following sweeps
+     */
+    public void setConvergencePolicy(ConvergencePolicy convergence)
+    {
+        this.convergence = convergence;
+    }
+
+
+    /**
+     * chooses how the runs of a sweep are scheduled
+     * @param warmStart true to run them one after another in order of preference, each starting from the messages
+     * of the one before and spreading its rows over the pool; false to run them side by side on the pool, each
+     * from zero messages, which needs two N x N matrices per run in progress
+     */
+    public void setWarmStart(boolean warmStart)
+    {
+        this.warmStart = warmStart;
+    }
+
+
+    /**
+     * sets how many threads a sweep runs on
+     * @param parallelism number of threads, 1 runs everything on the calling thread
+     */
+    public void setParallelism(int parallelism)
+    {
+        pool.setParallelism(parallelism);
+    }
+
+
+    /**
+     * makes the sweep run on the given pool
+     * @param pool a ForkJoinPool shared with the caller, or null to run on the calling thread
+     */
+    public void setPool(ForkJoinPool pool)
+    {
+        this.pool.set(pool);
+    }
+
+
+    /**
+     * shuts down the pool if setParallelism() made it, a pool given to setPool() is left to the caller; the solver
+     * runs on the calling thread afterwards
+     */
+    @Override
+    public void close()
+    {
+        pool.close();
+    }
+
+
+    /**
+     * finds the preference a slider and gama give, the same one AffinityPropagation would compute
+     * @param slider double value between 0-1
+     * @param gama factor the similarity at the slider quantile is scaled by
+     * @return returns the preference
+     */
+    public double getPreference(double slider, double gama)
+    {
+        return sorted.quantile(slider) * gama;
+    }
+
+
+    /**
+     * clusters the data set once for every slider value, with the default gama of 0.36
+     * @param sliders double values between 0-1
+     * @return returns one result per slider, in the same order
+     */
+    public List<Result> run(double[] sliders)
+    {
+        double[] gamas = new double[sliders.length];
+        Arrays.fill(gamas, 0.36);
+
+        return run(sliders, gamas);
+    }
+
+
+    /**
+     * clusters the data set once for every pair (sliders[i], gamas[i])
+     * @param sliders double values between 0-1
+     * @param gamas the gama of every slider
+     * @return returns one result per pair, in the same order
+     */
+    public List<Result> run(final double[] sliders, final double[] gamas)
+    {
+        final int n = numReferencePoints, count = sliders.length;
+        final Result[] results = new Result[count];
+
+        if(gamas.length != count)
+        {
+            throw new IllegalArgumentException(count + " sliders but " + gamas.length + " gamas");
+        }
+
+        if(warmStart == true)
+        {
+            Integer[] order = new Integer[count];
+            double[] responsibilities = new double[n * n], availablities = new double[n * n];
+
+            for(int c = 0; c < count; c += 1)
+            {
+                order[c] = c;
+            }
+
+            Arrays.sort(order, (x, y) -> Double.compare(getPreference(sliders[x], gamas[x]), getPreference(sliders[y], gamas[y])));
+
+            for(int c : order)
+            {
+                results[c] = solve(sliders[c], gamas[c], responsibilities, availablities, pool.get());
+            }
+        }
+
+        else
+        {
+            ParallelRange.run(pool.get(), count, (from, to) ->
+            {
+                for(int c = from; c < to; c += 1)
+                {
+                    results[c] = solve(sliders[c], gamas[c], new double[n * n], new double[n * n], null);
+                }
+            });
+        }
+
+        return Arrays.asList(results);
+    }
+
+
+    /**
+     * runs affinity propagation for one preference, the way AffinityPropagation.apCluster() does
+     * @param responsibilities responsibility matrix to start from, updated in place
+     * @param availablities availability matrix to start from, updated in place
+     * @param rows pool to spread the rows over, or null
+     */
+    private Result solve(double slider, double gama, final double[] responsibilities, final double[] availablities,
+                         ForkJoinPool rows)
+    {
+        final int n = numReferencePoints;
+        final double preference = getPreference(slider, gama);
+        final double[] positiveSums = new double[n], diagonal = new double[n], rowChanges = new double[n];
+        int[] examplars = new int[n], previousExamplars = new int[n], swap;
+        int iterations = 0, unchanged = 0;
+        ConvergencePolicy.StopReason stopReason = null;
+
+        Arrays.fill(examplars, -1);
+
+        while(stopReason == null)
+        {
+            iterations += 1;
+            swap = previousExamplars;
+            previousExamplars = examplars;
+            examplars = swap;
+
+            final int[] labels = examplars;
+
+            ParallelRange.run(rows, n, (from, to) ->
+            {
+                for(int i = from; i < to; i += 1)
+                {
+                    rowChanges[i] = MessageKernels.responsibilities(similarities, availablities, responsibilities, i * n, i,
+                                                                    preference, n, dampingFactor);
+                }
+            });
+
+            ParallelRange.run(rows, n, (from, to) ->
+            {
+                Arrays.fill(positiveSums, from, to, 0.0);
+
+                for(int i = 0; i < n; i += 1)
+                {
+                    MessageKernels.positiveSums(responsibilities, i * n, i, from, to, positiveSums, diagonal);
+                }
+            });
+
+            ParallelRange.run(rows, n, (from, to) ->
+            {
+                for(int i = from; i < to; i += 1)
+                {
+                    rowChanges[i] = Math.max(rowChanges[i], MessageKernels.availabilities(responsibilities, availablities,
+                                                            i * n, i, n, positiveSums, diagonal, dampingFactor));
+                    labels[i] = MessageKernels.examplar(availablities, responsibilities, i * n, n);
+                }
+            });
+
+            unchanged = Arrays.equals(examplars, previousExamplars) ? unchanged + 1 : 0;
+            stopReason = convergence.check(iterations, unchanged, MessageKernels.max(rowChanges));
+        }
+
+        boolean[] seen = new boolean[n];
+        int numClusters = 0;
+        double netSimilarity = 0.0;
+
+        for(int i = 0; i < n; i += 1)
+        {
+            int examplar = examplars[i];
+
+            if(examplar >= 0)
+            {
+                netSimilarity += (examplar == i) ? preference : similarities[i * n + examplar];
+                numClusters += seen[examplar] ? 0 : 1;
+                seen[examplar] = true;
+            }
+        }
+
+        return new Result(slider, gama, preference, examplars, numClusters, netSimilarity, iterations, stopReason);
+    }
+}
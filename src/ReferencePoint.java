@@ -1,5 +1,3 @@
-import java.util.*;
-
 public class ReferencePoint
 {
     public double x, y;
@@ -7,16 +5,40 @@ public class ReferencePoint
     public ReferencePoint examplar;
     public boolean examplar_changed;
     public boolean cluster_head;
-    public ArrayList<Double> RSS;
 
-    public ReferencePoint(double x, double y)
+    // the RSS readings live in an array shared by all reference points of a data set,
+    // this point only knows where its own readings start and how many there are
+    private double[] fingerprints;
+    private int offset;
+    private int numRSS;
+
+    public ReferencePoint(double x, double y, double[] fingerprints, int offset, int numRSS)
     {
         this.x = x;
         this.y = y;
         this.examplar = null;
         this.examplar_changed = true;
         this.cluster_head = false;
-        RSS = new ArrayList<Double>();
+        this.fingerprints = fingerprints;
+        this.offset = offset;
+        this.numRSS = numRSS;
+    }
+
+    // points that are added to or removed from a live data set move to a new shared array
+    void setFingerprints(double[] fingerprints, int offset)
+    {
+        this.fingerprints = fingerprints;
+        this.offset = offset;
+    }
+
+    public int getNumRSS()
+    {
+        return numRSS;
+    }
+
+    public double getRSS(int i)
+    {
+        return fingerprints[offset + i];
     }
 
     public String toString()
@@ -52,9 +74,14 @@ public class ReferencePoint
             return false;
         }
 
-        for(int i = 0; i < this.RSS.size(); i += 1)
+        if(this.numRSS != other.numRSS)
+        {
+            return false;
+        }
+
+        for(int i = 0; i < this.numRSS; i += 1)
         {
-            if(this.RSS.get(i) != other.RSS.get(i))
+            if(this.getRSS(i) != other.getRSS(i))
             {
                 return false;
             }
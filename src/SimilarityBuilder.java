@@ -0,0 +1,248 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+Builds the off diagonal part of a similarity matrix, s(i,j) = -||x_i - x_j||^2, using
+||x_i||^2 + ||x_j||^2 - 2 x_i.x_j with the squared norms computed once per point. The
+matrix is symmetric, so only tiles on or above the diagonal are computed and every value
+is mirrored into the lower triangle. Tiles are small enough that the rows (or columns) of
+both tiles stay in cache while their dot products are taken. The diagonal is left alone,
+it holds the preference which is set afterwards.
+ */
+class SimilarityBuilder
+{
+    // number of points along one side of a tile
+    static final int TILE = 64;
+
+
+    /**
+     * work done on one pair of points i < j
+     */
+    private interface Pair
+    {
+        void run(int i, int j);
+    }
+
+
+    /**
+     * builds the similarities of points whose features are stored one point after another
+     * @param features flat array with the features of point i at [i * dimension, (i + 1) * dimension)
+     * @param n number of points
+     * @param dimension number of features per point
+     * @param similarities flat n x n output matrix
+     * @param kernel the kernel taking the dot products
+     * @param pool pool to spread the tile rows over, or null
+     */
+    static void build_rows(final double[] features, final int n, final int dimension, final double[] similarities,
+                           final SimilarityKernel kernel, ForkJoinPool pool)
+    {
+        final double[] norms = norms(features, n, dimension, kernel);
+
+        upper_tiles(n, pool, (i, j) -> store(similarities, n, i, j, similarity(features, dimension, norms, i, j, kernel)));
+    }
+
+
+    /**
+     * builds the similarities of points whose features are stored one point after another into a single precision
+     * matrix. distances are taken in double, like build_rows, and rounded once when stored
+     * @param features flat array with the features of point i at [i * dimension, (i + 1) * dimension)
+     * @param n number of points
+     * @param dimension number of features per point
+     * @param similarities flat n x n output matrix
+     * @param kernel the kernel taking the dot products
+     * @param pool pool to spread the tile rows over, or null
+     */
+    static void build_rows(final double[] features, final int n, final int dimension, final float[] similarities,
+                           final SimilarityKernel kernel, ForkJoinPool pool)
+    {
+        final double[] norms = norms(features, n, dimension, kernel);
+
+        upper_tiles(n, pool, (i, j) ->
+        {
+            float similarity = (float) similarity(features, dimension, norms, i, j, kernel);
+            similarities[i * n + j] = similarity;
+            similarities[j * n + i] = similarity;
+        });
+    }
+
+
+    /**
+     * walks the pairs i < j of n points tile by tile, spreading the rows of tiles over the pool
+     * @param n number of points
+     * @param pool pool to spread the tile rows over, or null
+     * @param pair work done on every pair
+     */
+    private static void upper_tiles(final int n, ForkJoinPool pool, final Pair pair)
+    {
+        int tiles = (n + TILE - 1) / TILE;
+
+        ParallelRange.run(pool, tiles, (from, to) ->
+        {
+            for(int tileA = from; tileA < to; tileA += 1)
+            {
+                int startA = tileA * TILE, endA = Math.min(n, startA + TILE);
+
+                for(int startB = startA; startB < n; startB += TILE)
+                {
+                    int endB = Math.min(n, startB + TILE);
+
+                    for(int i = startA; i < endA; i += 1)
+                    {
+                        for(int j = Math.max(startB, i + 1); j < endB; j += 1)
+                        {
+                            pair.run(i, j);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+
+    /**
+     * builds the similarities between the points [first, n) and every point before them, for points appended to a
+     * matrix whose first rows are already built. the values are exactly those build_rows gives
+     * @param features flat array with the features of point i at [i * dimension, (i + 1) * dimension)
+     * @param n number of points
+     * @param dimension number of features per point
+     * @param first index of the first appended point
+     * @param similarities flat n x n output matrix
+     * @param kernel the kernel taking the dot products
+     * @param pool pool to spread the appended rows over, or null
+     */
+    static void build_rows_appended(final double[] features, final int n, final int dimension, final int first,
+                                    final double[] similarities, final SimilarityKernel kernel, ForkJoinPool pool)
+    {
+        final double[] norms = norms(features, n, dimension, kernel);
+
+        ParallelRange.run(pool, n - first, (from, to) ->
+        {
+            for(int j = first + from; j < first + to; j += 1)
+            {
+                // the lower index first, in the order build_rows takes every pair
+                for(int i = 0; i < j; i += 1)
+                {
+                    store(similarities, n, i, j, similarity(features, dimension, norms, i, j, kernel));
+                }
+            }
+        });
+    }
+
+
+    /**
+     * builds the similarities of points whose features are stored one feature after another, like psi_matrix
+     * @param features features[f][i] is feature f of point i
+     * @param n number of points
+     * @param similarities flat n x n output matrix
+     * @param pool pool to spread the tile rows over, or null
+     */
+    static void build_columns(final double[][] features, final int n, final double[] similarities, ForkJoinPool pool)
+    {
+        final double[] norms = new double[n];
+        int tiles = (n + TILE - 1) / TILE;
+
+        for(double[] feature : features)
+        {
+            for(int i = 0; i < n; i += 1)
+            {
+                norms[i] += feature[i] * feature[i];
+            }
+        }
+
+        ParallelRange.run(pool, tiles, (from, to) ->
+        {
+            double[] dots = new double[TILE * TILE];
+
+            for(int tileA = from; tileA < to; tileA += 1)
+            {
+                int startA = tileA * TILE, endA = Math.min(n, startA + TILE);
+
+                for(int startB = startA; startB < n; startB += TILE)
+                {
+                    int endB = Math.min(n, startB + TILE);
+                    Arrays.fill(dots, 0.0);
+
+                    // one outer product per feature, accumulated over the whole tile
+                    for(double[] feature : features)
+                    {
+                        for(int i = startA; i < endA; i += 1)
+                        {
+                            double value = feature[i];
+                            int row = (i - startA) * TILE - startB;
+
+                            for(int j = startB; j < endB; j += 1)
+                            {
+                                dots[row + j] += value * feature[j];
+                            }
+                        }
+                    }
+
+                    for(int i = startA; i < endA; i += 1)
+                    {
+                        for(int j = Math.max(startB, i + 1); j < endB; j += 1)
+                        {
+                            store(similarities, n, i, j, similarity(norms[i] + norms[j] - 2.0 * dots[(i - startA) * TILE + j - startB]));
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+
+    /**
+     * calculates the squared norm of every point, computed once and shared by all the pairs of the point
+     * @param features flat array with the features of point i at [i * dimension, (i + 1) * dimension)
+     * @param n number of points
+     * @param dimension number of features per point
+     * @param kernel the kernel taking the dot products
+     * @return returns ||x_i||^2 for every point i
+     */
+    static double[] norms(double[] features, int n, int dimension, SimilarityKernel kernel)
+    {
+        double[] norms = new double[n];
+
+        for(int i = 0; i < n; i += 1)
+        {
+            norms[i] = kernel.dot(features, i * dimension, i * dimension, dimension);
+        }
+
+        return norms;
+    }
+
+
+    /**
+     * calculates s(i,j) exactly as the builders above store it, for the solvers that never hold the whole matrix
+     * @param features flat array with the features of point i at [i * dimension, (i + 1) * dimension)
+     * @param dimension number of features per point
+     * @param norms squared norms of the points, see norms()
+     * @param i index of the first point
+     * @param j index of the second point
+     * @param kernel the kernel taking the dot product
+     * @return returns -||x_i - x_j||^2
+     */
+    static double similarity(double[] features, int dimension, double[] norms, int i, int j, SimilarityKernel kernel)
+    {
+        return similarity(norms[i] + norms[j] - 2.0 * kernel.dot(features, i * dimension, j * dimension, dimension));
+    }
+
+
+    /**
+     * @return returns the similarity of a squared distance taken as ||x_i||^2 + ||x_j||^2 - 2 x_i.x_j
+     */
+    private static double similarity(double squaredDistance)
+    {
+        // rounding can leave a tiny negative distance between (nearly) identical points
+        return (squaredDistance > 0) ? -squaredDistance : 0.0;
+    }
+
+
+    /**
+     * writes s(i,j) and s(j,i)
+     */
+    private static void store(double[] similarities, int n, int i, int j, double similarity)
+    {
+        similarities[i * n + j] = similarity;
+        similarities[j * n + i] = similarity;
+    }
+}
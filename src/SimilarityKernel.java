@@ -0,0 +1,161 @@
+/*
+The inner loops of the similarity computation: the dot product of two RSS rows stored in
+a flat array, from which SimilarityBuilder takes every similarity, and the squared
+Euclidean distance between rows of two arrays, by which LocalizationIndex ranks the
+examplars for a query. The single precision message rows of FloatAffinityPropagation go
+through the kernel as well, since they are the other loops that gain from wider vectors.
+best() returns the SIMD kernel when the JVM was started with the jdk.incubator.vector
+module (--add-modules jdk.incubator.vector) and the plain scalar loops otherwise. Setting
+-Daffinity.simd=false forces the scalar loops. Both give the same floats bit for bit.
+ */
+abstract class SimilarityKernel
+{
+    private static final SimilarityKernel BEST = select();
+
+
+    /**
+     * calculates the squared Euclidean distance between rows of two flat arrays
+     * @param a the array row a lives in
+     * @param offsetA index of the first value of row a
+     * @param b the array row b lives in
+     * @param offsetB index of the first value of row b
+     * @param length number of values in a row
+     * @return returns sum((a[i] - b[i])^2)
+     */
+    abstract double squaredDistance(double[] a, int offsetA, double[] b, int offsetB, int length);
+
+
+    /**
+     * calculates the dot product of two rows of a flat array
+     * @param data the array both rows live in
+     * @param offsetA index of the first value of row a
+     * @param offsetB index of the first value of row b
+     * @param length number of values in a row
+     * @return returns sum(a[i] * b[i])
+     */
+    abstract double dot(double[] data, int offsetA, int offsetB, int length);
+
+
+    /**
+     * single precision responsibility messages of one row, see MessageKernels.responsibilities()
+     * @return returns the largest change of a responsibility in the row
+     */
+    abstract double responsibilities(float[] similarities, float[] availablities, float[] responsibilities, int offset,
+                                     int n, float dampingFactor);
+
+
+    /**
+     * adds max{0,r(i,k)} of one single precision row to the column sums, see MessageKernels.positiveSums()
+     */
+    abstract void positiveSums(float[] responsibilities, int offset, int row, int from, int to, float[] positiveSums,
+                               float[] diagonal);
+
+
+    /**
+     * single precision availability messages of one row, see MessageKernels.availabilities()
+     * @return returns the largest change of an availability in the row
+     */
+    abstract double availabilities(float[] responsibilities, float[] availablities, int offset, int row, int n,
+                                   float[] positiveSums, float[] diagonal, float dampingFactor);
+
+
+    /**
+     * @return returns the fastest kernel this JVM can run
+     */
+    static SimilarityKernel best()
+    {
+        return BEST;
+    }
+
+
+    /**
+     * @return returns the kernel that works on every JVM
+     */
+    static SimilarityKernel scalar()
+    {
+        return ScalarSimilarityKernel.INSTANCE;
+    }
+
+
+    private static SimilarityKernel select()
+    {
+        if(Boolean.parseBoolean(System.getProperty("affinity.simd", "true")) == false)
+        {
+            return scalar();
+        }
+
+        // the vector kernel is looked up by name so that this class links without the incubator module
+        try
+        {
+            SimilarityKernel kernel = (SimilarityKernel) Class.forName("VectorSimilarityKernel").getDeclaredConstructor().newInstance();
+            double[] probe = {1.0, 2.0, 3.0, 4.0, 5.0, 0.0, 0.0, 0.0, 0.0, 0.0};
+
+            if(kernel.squaredDistance(probe, 0, probe, 5, 5) == 55.0 && kernel.dot(probe, 0, 0, 5) == 55.0)
+            {
+                return kernel;
+            }
+        }
+
+        catch(ReflectiveOperationException | LinkageError e)
+        {
+            // the module is not there, fall through to the scalar kernel
+        }
+
+        return scalar();
+    }
+}
+
+
+class ScalarSimilarityKernel extends SimilarityKernel
+{
+    static final ScalarSimilarityKernel INSTANCE = new ScalarSimilarityKernel();
+
+    @Override
+    double squaredDistance(double[] a, int offsetA, double[] b, int offsetB, int length)
+    {
+        double sum = 0.0, difference;
+
+        for(int i = 0; i < length; i += 1)
+        {
+            difference = a[offsetA + i] - b[offsetB + i];
+            sum += difference * difference;
+        }
+
+        return sum;
+    }
+
+    @Override
+    double dot(double[] data, int offsetA, int offsetB, int length)
+    {
+        double sum = 0.0;
+
+        for(int i = 0; i < length; i += 1)
+        {
+            sum += data[offsetA + i] * data[offsetB + i];
+        }
+
+        return sum;
+    }
+
+    @Override
+    double responsibilities(float[] similarities, float[] availablities, float[] responsibilities, int offset, int n,
+                            float dampingFactor)
+    {
+        return MessageKernels.responsibilities(similarities, availablities, responsibilities, offset, n, dampingFactor);
+    }
+
+    @Override
+    void positiveSums(float[] responsibilities, int offset, int row, int from, int to, float[] positiveSums,
+                      float[] diagonal)
+    {
+        MessageKernels.positiveSums(responsibilities, offset, row, from, to, positiveSums, diagonal);
+    }
+
+    @Override
+    double availabilities(float[] responsibilities, float[] availablities, int offset, int row, int n,
+                          float[] positiveSums, float[] diagonal, float dampingFactor)
+    {
+        return MessageKernels.availabilities(responsibilities, availablities, offset, row, n, positiveSums, diagonal,
+                                             dampingFactor);
+    }
+}
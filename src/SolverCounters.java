@@ -0,0 +1,90 @@
+/*
+Running totals over the instrumented iterations of a solver, with the statistics of the
+latest one. A new snapshot replaces the previous one after every instrumented iteration,
+so getCounters() can be polled from another thread while apCluster() runs.
+ */
+public class SolverCounters
+{
+    static final SolverCounters EMPTY = new SolverCounters(0, 0L, 0L, 0L, 0L, null);
+
+    private final int iterations;
+    private final long responsibilityNanos, availabilityNanos, examplarNanos;
+    private final long labelChanges;
+    private final IterationStats last;
+
+
+    private SolverCounters(int iterations, long responsibilityNanos, long availabilityNanos, long examplarNanos,
+                           long labelChanges, IterationStats last)
+    {
+        this.iterations = iterations;
+        this.responsibilityNanos = responsibilityNanos;
+        this.availabilityNanos = availabilityNanos;
+        this.examplarNanos = examplarNanos;
+        this.labelChanges = labelChanges;
+        this.last = last;
+    }
+
+
+    /**
+     * @return returns these counters with one more iteration added
+     */
+    SolverCounters plus(IterationStats stats)
+    {
+        return new SolverCounters(iterations + 1, responsibilityNanos + stats.getResponsibilityNanos(),
+                                  availabilityNanos + stats.getAvailabilityNanos(), examplarNanos + stats.getExamplarNanos(),
+                                  labelChanges + stats.getLabelChanges(), stats);
+    }
+
+
+    /**
+     * @return returns the number of iterations counted
+     */
+    public int getIterations()
+    {
+        return iterations;
+    }
+
+
+    public long getResponsibilityNanos()
+    {
+        return responsibilityNanos;
+    }
+
+
+    public long getAvailabilityNanos()
+    {
+        return availabilityNanos;
+    }
+
+
+    public long getExamplarNanos()
+    {
+        return examplarNanos;
+    }
+
+
+    /**
+     * @return returns the number of examplar changes over all counted iterations
+     */
+    public long getLabelChanges()
+    {
+        return labelChanges;
+    }
+
+
+    /**
+     * @return returns the statistics of the latest counted iteration, null before the first one
+     */
+    public IterationStats getLast()
+    {
+        return last;
+    }
+
+
+    public String toString()
+    {
+        return iterations + " iterations, " + labelChanges + " label changes, phases " + responsibilityNanos / 1000000 + "/"
+               + availabilityNanos / 1000000 + "/" + examplarNanos / 1000000 + " ms"
+               + ((last == null) ? "" : ", last " + last);
+    }
+}
@@ -0,0 +1,66 @@
+import java.util.concurrent.*;
+
+/*
+The ForkJoinPool a solver hands to ParallelRange, and whether the solver made it. A pool
+made by setParallelism() belongs to the solver: it is shut down when another pool takes its
+place or when the solver is closed. A pool given to set() belongs to the caller and is left
+running. Without a pool (null) every phase runs on the calling thread.
+ */
+class SolverPool
+{
+    private ForkJoinPool pool;
+    private boolean owned;
+
+
+    /**
+     * @return returns the pool to run on, null for the calling thread
+     */
+    ForkJoinPool get()
+    {
+        return pool;
+    }
+
+
+    /**
+     * replaces the pool with one of the solver's own
+     * @param parallelism number of threads, 1 runs everything on the calling thread
+     */
+    void setParallelism(int parallelism)
+    {
+        if(parallelism < 1)
+        {
+            throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+        }
+
+        close();
+        pool = (parallelism == 1) ? null : new ForkJoinPool(parallelism);
+        owned = pool != null;
+    }
+
+
+    /**
+     * replaces the pool with one shared with the caller
+     * @param pool the caller's pool, or null to run on the calling thread
+     */
+    void set(ForkJoinPool pool)
+    {
+        close();
+        this.pool = pool;
+        owned = false;
+    }
+
+
+    /**
+     * shuts the pool down if the solver made it and goes back to the calling thread
+     */
+    void close()
+    {
+        if(owned == true)
+        {
+            pool.shutdown();
+        }
+
+        pool = null;
+        owned = false;
+    }
+}
@@ -0,0 +1,384 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+
+/*
+A snapshot of the message state of an AffinityPropagation run: the responsibility and
+availability matrices, the number of iterations they have been through, the examplar
+of every reference point and where an adaptive DampingPolicy had got to. Handing one to
+AffinityPropagation.setState() resumes the run where the snapshot was taken, or warm
+starts a run on a slightly changed data set of the same size.
+
+Layout of version 2, little-endian:
+    "APSS", version, number of points, iterations           4 ints
+    damping factor, lowered from, lowered to                3 doubles, NaN for a preference not lowered
+    oscillating streak, calm streak                         2 ints
+    examplar of every point, -1 for none                    N ints
+    sign of r(k,k) + a(k,k) of every point, 1 if positive   N ints
+    last and previous iteration the sign flipped in         2 * N ints
+    responsibilities, row after row                         N * N doubles
+    availabilities, row after row                           N * N doubles
+
+Version 1 files, written before the damping state was kept, have only the 4 header ints,
+the examplars padded to 8 bytes and the two matrices. They still read, without a damping
+state (see hasDampingState()); such a snapshot is written back with a NaN damping factor.
+ */
+public class SolverState
+{
+    private static final int MAGIC = 0x53535041; // "APSS" read as a little-endian int
+    private static final int VERSION = 2;
+
+    // a fresh run has no sign flips yet, lastFlip and previousFlip start far enough back not to count
+    static final int NO_FLIP = Integer.MIN_VALUE / 2;
+
+    private final int numReferencePoints;
+    private final int iterations;
+    private final int[] examplars;
+    private final double[] responsibilities;
+    private final double[] availabilities;
+
+    // the damping state, dampingFactor is NaN and the arrays are null for a version 1 file
+    private final double dampingFactor, loweredFrom, loweredTo;
+    private final int oscillating, calm;
+    private final boolean[] evidence;
+    private final int[] lastFlip, previousFlip;
+
+
+    /**
+     * Constructor of the SolverState class, which takes over the arrays without copying them.
+     * @param numReferencePoints number of reference points N
+     * @param iterations number of iterations the messages have been through
+     * @param examplars index of the examplar of every reference point, -1 for none
+     * @param responsibilities flat N x N responsibility matrix
+     * @param availabilities flat N x N availability matrix
+     */
+    SolverState(int numReferencePoints, int iterations, int[] examplars, double[] responsibilities, double[] availabilities)
+    {
+        this(numReferencePoints, iterations, examplars, responsibilities, availabilities, Double.NaN, Double.NaN,
+             Double.NaN, 0, 0, null, null, null);
+    }
+
+
+    /**
+     * Constructor of the SolverState class with the damping state, which takes over the arrays without copying them.
+     * @param dampingFactor damping factor of the next iteration
+     * @param loweredFrom preference before the damping policy lowered it, NaN if it has not
+     * @param loweredTo preference the damping policy lowered it to, NaN if it has not
+     * @param oscillating number of oscillating iterations in a row
+     * @param calm number of calm iterations in a row
+     * @param evidence sign of r(k,k) + a(k,k) of every point, true if positive
+     * @param lastFlip last iteration the sign of every point flipped in
+     * @param previousFlip iteration before that
+     */
+    SolverState(int numReferencePoints, int iterations, int[] examplars, double[] responsibilities, double[] availabilities,
+                double dampingFactor, double loweredFrom, double loweredTo, int oscillating, int calm, boolean[] evidence,
+                int[] lastFlip, int[] previousFlip)
+    {
+        this.numReferencePoints = numReferencePoints;
+        this.iterations = iterations;
+        this.examplars = examplars;
+        this.responsibilities = responsibilities;
+        this.availabilities = availabilities;
+        this.dampingFactor = dampingFactor;
+        this.loweredFrom = loweredFrom;
+        this.loweredTo = loweredTo;
+        this.oscillating = oscillating;
+        this.calm = calm;
+        this.evidence = evidence;
+        this.lastFlip = lastFlip;
+        this.previousFlip = previousFlip;
+    }
+
+
+    public int getNumReferencePoints()
+    {
+        return numReferencePoints;
+    }
+
+
+    public int getIterations()
+    {
+        return iterations;
+    }
+
+
+    /**
+     * @return returns the index of the examplar of every reference point, -1 where none had been found
+     */
+    public int[] getExamplars()
+    {
+        return examplars.clone();
+    }
+
+
+    /**
+     * @return returns the responsibility matrix, row after row, as a read-only view
+     */
+    public DoubleBuffer getResponsibilities()
+    {
+        return DoubleBuffer.wrap(responsibilities).asReadOnlyBuffer();
+    }
+
+
+    /**
+     * @return returns the availability matrix, row after row, as a read-only view
+     */
+    public DoubleBuffer getAvailabilities()
+    {
+        return DoubleBuffer.wrap(availabilities).asReadOnlyBuffer();
+    }
+
+
+    /**
+     * @return returns the lastFlip or previousFlip of n points in a fresh run
+     */
+    static int[] noFlips(int n)
+    {
+        int[] flips = new int[n];
+        Arrays.fill(flips, NO_FLIP);
+        return flips;
+    }
+
+
+    /**
+     * @return returns false for a snapshot read from a version 1 file, which did not keep the damping state
+     */
+    public boolean hasDampingState()
+    {
+        return Double.isNaN(dampingFactor) == false;
+    }
+
+
+    /**
+     * @return returns the damping factor of the next iteration, NaN without a damping state
+     */
+    public double getDampingFactor()
+    {
+        return dampingFactor;
+    }
+
+
+    double getLoweredFrom()
+    {
+        return loweredFrom;
+    }
+
+
+    double getLoweredTo()
+    {
+        return loweredTo;
+    }
+
+
+    int getOscillating()
+    {
+        return oscillating;
+    }
+
+
+    int getCalm()
+    {
+        return calm;
+    }
+
+
+    boolean[] getEvidence()
+    {
+        return evidence.clone();
+    }
+
+
+    int[] getLastFlip()
+    {
+        return lastFlip.clone();
+    }
+
+
+    int[] getPreviousFlip()
+    {
+        return previousFlip.clone();
+    }
+
+
+    /**
+     * writes the snapshot to a file. it is written next to the file first and then moved over it,
+     * so a crash while writing leaves the previous snapshot in place
+     * @param filename file address of the snapshot
+     * @throws IOException if the file cannot be written
+     */
+    public void write(String filename) throws IOException
+    {
+        int n = numReferencePoints;
+        Path target = Paths.get(filename).toAbsolutePath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+
+        try(FileOutputStream stream = new FileOutputStream(temp.toFile()))
+        {
+            BinaryOutput out = new BinaryOutput(stream.getChannel());
+
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(n);
+            out.putInt(iterations);
+            out.putDouble(dampingFactor);
+            out.putDouble(loweredFrom);
+            out.putDouble(loweredTo);
+            out.putInt(oscillating);
+            out.putInt(calm);
+            out.putInts(examplars, n);
+
+            // without a damping state the arrays are written as a fresh run has them, the NaN damping factor marks it
+            for(int k = 0; k < n; k += 1)
+            {
+                out.putInt((evidence != null && evidence[k] == true) ? 1 : 0);
+            }
+
+            out.putInts((lastFlip != null) ? lastFlip : noFlips(n), n);
+            out.putInts((previousFlip != null) ? previousFlip : noFlips(n), n);
+            out.putDoubles(responsibilities, n * n);
+            out.putDoubles(availabilities, n * n);
+            out.flush();
+            stream.getFD().sync();
+        }
+
+        try
+        {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        catch(AtomicMoveNotSupportedException e)
+        {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+
+    /**
+     * reads a snapshot written by write()
+     * @param filename file address of the snapshot
+     * @return returns the snapshot
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    public static SolverState read(String filename) throws IOException
+    {
+        try(RandomAccessFile access = new RandomAccessFile(filename, "r"))
+        {
+            FileChannel channel = access.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+            buffer.limit(16);
+            fill(channel, buffer, filename);
+
+            if(buffer.getInt(0) != MAGIC)
+            {
+                throw new IOException(filename + " is not a solver state file");
+            }
+
+            int version = buffer.getInt(4);
+
+            if(version != 1 && version != VERSION)
+            {
+                throw new IOException(filename + " has unsupported version " + version);
+            }
+
+            int n = buffer.getInt(8), iterations = buffer.getInt(12);
+            long header = (version == 1) ? 16 : 48, ints = (version == 1) ? n + (n & 1) : 4L * n;
+
+            if(n < 0 || (long) n * n > Integer.MAX_VALUE || channel.size() != header + 4 * ints + 16L * n * n)
+            {
+                throw new IOException(filename + " is truncated or corrupt");
+            }
+
+            int[] examplars = new int[n];
+            double[] responsibilities = new double[n * n];
+            double[] availabilities = new double[n * n];
+
+            if(version == 1)
+            {
+                readInts(channel, buffer, examplars, filename);
+                channel.position(header + 4 * ints);
+                readDoubles(channel, buffer, responsibilities, filename);
+                readDoubles(channel, buffer, availabilities, filename);
+
+                return new SolverState(n, iterations, examplars, responsibilities, availabilities);
+            }
+
+            buffer.clear();
+            buffer.limit(32);
+            fill(channel, buffer, filename);
+
+            double dampingFactor = buffer.getDouble(0), loweredFrom = buffer.getDouble(8), loweredTo = buffer.getDouble(16);
+            int oscillating = buffer.getInt(24), calm = buffer.getInt(28);
+            int[] signs = new int[n], lastFlip = new int[n], previousFlip = new int[n];
+            boolean[] evidence = new boolean[n];
+
+            readInts(channel, buffer, examplars, filename);
+            readInts(channel, buffer, signs, filename);
+            readInts(channel, buffer, lastFlip, filename);
+            readInts(channel, buffer, previousFlip, filename);
+            readDoubles(channel, buffer, responsibilities, filename);
+            readDoubles(channel, buffer, availabilities, filename);
+
+            if(Double.isNaN(dampingFactor) == true)
+            {
+                return new SolverState(n, iterations, examplars, responsibilities, availabilities);
+            }
+
+            for(int k = 0; k < n; k += 1)
+            {
+                evidence[k] = signs[k] != 0;
+            }
+
+            return new SolverState(n, iterations, examplars, responsibilities, availabilities, dampingFactor, loweredFrom,
+                                   loweredTo, oscillating, calm, evidence, lastFlip, previousFlip);
+        }
+    }
+
+
+    private static void readInts(FileChannel channel, ByteBuffer buffer, int[] values, String filename) throws IOException
+    {
+        for(int from = 0; from < values.length; )
+        {
+            buffer.clear();
+            buffer.limit(4 * Math.min(values.length - from, buffer.capacity() / 4));
+            fill(channel, buffer, filename);
+            int chunk = buffer.remaining() / 4;
+            buffer.asIntBuffer().get(values, from, chunk);
+            from += chunk;
+        }
+    }
+
+
+    private static void readDoubles(FileChannel channel, ByteBuffer buffer, double[] values, String filename) throws IOException
+    {
+        for(int from = 0; from < values.length; )
+        {
+            buffer.clear();
+            buffer.limit(8 * Math.min(values.length - from, buffer.capacity() / 8));
+            fill(channel, buffer, filename);
+            int chunk = buffer.remaining() / 8;
+            buffer.asDoubleBuffer().get(values, from, chunk);
+            from += chunk;
+        }
+    }
+
+
+    /**
+     * reads from the current position of the channel until the buffer is full, then flips it
+     */
+    private static void fill(FileChannel channel, ByteBuffer buffer, String filename) throws IOException
+    {
+        while(buffer.hasRemaining())
+        {
+            if(channel.read(buffer) < 0)
+            {
+                throw new IOException(filename + " is truncated");
+            }
+        }
+
+        buffer.flip();
+    }
+}
@@ -0,0 +1,126 @@
+import java.util.*;
+
+/*
+The similarities above the main diagonal of a symmetric similarity matrix, kept sorted so
+that any quantile of the off diagonal similarities is a lookup. When points are added to
+or removed from the matrix only the similarities involving them change; those are sorted
+on their own and merged in, or taken out, in one linear pass over the rest.
+ */
+class SortedSimilarities
+{
+    private double[] values;
+    private int size;
+
+
+    /**
+     * sorts the similarities above the main diagonal of a symmetric matrix
+     * @param similarities flat n x n matrix
+     * @param n number of points
+     */
+    SortedSimilarities(double[] similarities, int n)
+    {
+        values = new double[(int) ((long) n * (n - 1) / 2)];
+
+        for(int i = 0; i < n; i += 1)
+        {
+            for(int j = i + 1; j < n; j += 1)
+            {
+                values[size] = similarities[i * n + j];
+                size += 1;
+            }
+        }
+
+        Arrays.sort(values);
+    }
+
+
+    int size()
+    {
+        return size;
+    }
+
+
+    /**
+     * finds the similarity at the slider quantile of all off diagonal similarities. every similarity shows up twice
+     * in the full matrix, so the index-th of all of them is the (index / 2)-th of the ones above the diagonal
+     * @param slider double value between 0-1
+     * @return returns the similarity, 0 if there are fewer than two points
+     */
+    double quantile(double slider)
+    {
+        long offDiagonal = 2L * size;
+        int index = (int) Math.min(offDiagonal - 1, (long) (offDiagonal * slider));
+
+        return (size == 0) ? 0.0 : values[index / 2];
+    }
+
+
+    /**
+     * merges new similarities in
+     * @param added the similarities, reordered in place
+     * @param count number of similarities in added
+     */
+    void add(double[] added, int count)
+    {
+        Arrays.sort(added, 0, count);
+
+        if(size + count > values.length)
+        {
+            values = Arrays.copyOf(values, (int) Math.min(Integer.MAX_VALUE - 8, size + count + (size + count) / 2L));
+        }
+
+        // merging from the back, so no value is overwritten before it has been moved
+        int i = size - 1, j = count - 1;
+
+        for(int write = size + count - 1; j >= 0; write -= 1)
+        {
+            if(i >= 0 && Double.compare(values[i], added[j]) > 0)
+            {
+                values[write] = values[i];
+                i -= 1;
+            }
+
+            else
+            {
+                values[write] = added[j];
+                j -= 1;
+            }
+        }
+
+        size += count;
+    }
+
+
+    /**
+     * takes similarities out, every one of them once
+     * @param removed the similarities, each equal to one that was added or sorted in before; reordered in place
+     * @param count number of similarities in removed
+     */
+    void remove(double[] removed, int count)
+    {
+        int j = 0, write = 0;
+
+        Arrays.sort(removed, 0, count);
+
+        for(int i = 0; i < size; i += 1)
+        {
+            if(j < count && Double.compare(values[i], removed[j]) == 0)
+            {
+                j += 1;
+            }
+
+            else
+            {
+                values[write] = values[i];
+                write += 1;
+            }
+        }
+
+        if(j != count)
+        {
+            throw new IllegalStateException((count - j) + " of the removed similarities were never added");
+        }
+
+        size = write;
+    }
+}
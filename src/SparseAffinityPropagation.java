@@ -0,0 +1,631 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/*
+Affinity propagation over a sparse similarity graph. Every reference point keeps only its
+k most similar neighbours (or the neighbours at least as similar as a threshold, or both)
+plus itself, stored row by row in compressed sparse row (CSR) form. Responsibilities and
+availabilities are only sent along those edges, so memory and time per iteration are
+O(N * k) instead of O(N^2). Finding the edges still takes every pair, so the graph is
+built on the first call of apCluster(), on the pool set by then.
+ */
+public class SparseAffinityPropagation implements AutoCloseable
+{
+    // data set
+    private FingerprintSet data;
+    private int numReferencePoints, numAccessPoints;
+
+    // similarity graph, the edges of row i are [rowStart[i], rowStart[i + 1]) sorted by column; null until built
+    private final int neighbours;
+    private final double threshold;
+    private int[] rowStart;
+    private int[] columns;
+    private int[] diagonal;
+
+    // the same edges grouped by column, columnEdges[columnStart[k], columnStart[k + 1]) sorted by row
+    private int[] columnStart;
+    private int[] columnEdges;
+
+    // affinity propagation input
+    private double[] similarities;
+    private double gama = 0.36;
+    private double dampingFactor = 0.5;
+    private double slider;
+    private double preference;
+    private SimilarityKernel kernel = SimilarityKernel.best();
+
+    // affinity propagation parameters
+    private double[] responsibilities;
+    private double[] availablities;
+    private double[] positiveSums;
+
+    // affinity propagation output
+    private int[] examplars;
+    private int[] previousExamplars;
+    private int numClusters;
+
+    // convergence, rowChanges holds the largest message change of every row in the last iteration
+    private ConvergencePolicy convergence = new ConvergencePolicy();
+    private ConvergencePolicy.StopReason stopReason;
+    private int iterations;
+    private double[] rowChanges;
+
+    // parallel execution, every phase runs on the calling thread until setParallelism() or setPool() gives it a pool
+    private final SolverPool pool = new SolverPool();
+
+
+    /**
+     * Constructor of the SparseAffinityPropagation class that keeps the k most similar neighbours of every point.
+     * @param filename file address to the data set
+     * @param neighbours number of neighbours kept per reference point
+     * @param slider double value between 0-1
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    public SparseAffinityPropagation(String filename, int neighbours, double slider) throws IOException
+    {
+        this(FingerprintSet.read(filename), neighbours, Double.NEGATIVE_INFINITY, slider);
+    }
+
+
+    /**
+     * Constructor of the SparseAffinityPropagation class.
+     * @param data reference points and readings of the data set
+     * @param neighbours largest number of neighbours kept per reference point, 0 for no limit
+     * @param threshold smallest similarity kept, Double.NEGATIVE_INFINITY for no limit
+     * @param slider double value between 0-1
+     */
+    public SparseAffinityPropagation(FingerprintSet data, int neighbours, double threshold, double slider)
+    {
+        if(neighbours < 0 || (neighbours == 0 && threshold == Double.NEGATIVE_INFINITY))
+        {
+            throw new IllegalArgumentException("either a neighbour count or a similarity threshold is needed");
+        }
+
+        this.data = data;
+        this.numReferencePoints = data.getNumReferencePoints();
+        this.numAccessPoints = data.getNumAccessPoints();
+        this.neighbours = neighbours;
+        this.threshold = threshold;
+        this.slider = slider;
+
+        positiveSums = new double[numReferencePoints];
+        examplars = new int[numReferencePoints];
+        previousExamplars = new int[numReferencePoints];
+        rowChanges = new double[numReferencePoints];
+        Arrays.fill(examplars, -1);
+    }
+
+
+    public int getNumClusters()
+    {
+        return numClusters;
+    }
+
+
+    public int getNumReferencePoints()
+    {
+        return numReferencePoints;
+    }
+
+
+    /**
+     * @return returns the number of edges in the similarity graph, self edges included; builds the graph if
+     * apCluster() has not
+     */
+    public int getNumEdges()
+    {
+        build();
+        return columns.length;
+    }
+
+
+    /**
+     * @return returns the preference of every reference point; builds the graph if apCluster() has not
+     */
+    public double getPreference()
+    {
+        build();
+        return preference;
+    }
+
+
+    public int getIterations()
+    {
+        return iterations;
+    }
+
+
+    /**
+     * @return returns why the last call of apCluster() stopped, or null if it has not been called
+     */
+    public ConvergencePolicy.StopReason getStopReason()
+    {
+        return stopReason;
+    }
+
+
+    /**
+     * sets when apCluster() stops, see ConvergencePolicy. sparse graphs oscillate more easily than full ones,
+     * so the iteration cap matters more here
+     * @param convergence the policy used by the following calls of apCluster()
+     */
+    public void setConvergencePolicy(ConvergencePolicy convergence)
+    {
+        this.convergence = convergence;
+    }
+
+
+    /**
+     * @return returns the index of the examplar of every reference point
+     */
+    public int[] getExamplars()
+    {
+        return examplars.clone();
+    }
+
+
+    /**
+     * sets how many threads apCluster() splits its rows and columns over
+     * @param parallelism number of threads, 1 runs everything on the calling thread
+     */
+    public void setParallelism(int parallelism)
+    {
+        pool.setParallelism(parallelism);
+    }
+
+
+    /**
+     * makes apCluster() run its phases on the given pool
+     * @param pool a ForkJoinPool shared with the caller, or null to run on the calling thread
+     */
+    public void setPool(ForkJoinPool pool)
+    {
+        this.pool.set(pool);
+    }
+
+
+    /**
+     * shuts down the pool if setParallelism() made it, a pool given to setPool() is left to the caller; the solver
+     * runs on the calling thread afterwards
+     */
+    @Override
+    public void close()
+    {
+        pool.close();
+    }
+
+
+    /**
+     * builds the similarity graph with the preference on its self edges, and the messages along its edges, unless
+     * that has been done already
+     */
+    private void build()
+    {
+        if(columns == null)
+        {
+            setGraph();
+            setPreferences();
+
+            responsibilities = new double[columns.length];
+            availablities = new double[columns.length];
+        }
+    }
+
+
+    /**
+     * builds the similarity graph: each row is computed in full once, but only its kept edges are stored
+     */
+    private void setGraph()
+    {
+        final int n = numReferencePoints, m = numAccessPoints;
+        final double[] fingerprints = data.getFingerprints();
+        final double[] norms = SimilarityBuilder.norms(fingerprints, n, m, kernel);
+        final int[][] rowColumns = new int[n][];
+        final double[][] rowSimilarities = new double[n][];
+        int edges = 0, edge;
+
+        ParallelRange.run(pool.get(), n, (from, to) ->
+        {
+            double[] row = new double[n];
+            int[] order = new int[n];
+
+            for(int i = from; i < to; i += 1)
+            {
+                int kept = 0;
+
+                for(int j = 0; j < n; j += 1)
+                {
+                    if(j != i)
+                    {
+                        row[j] = SimilarityBuilder.similarity(fingerprints, m, norms, Math.min(i, j), Math.max(i, j), kernel);
+
+                        if(row[j] >= threshold)
+                        {
+                            order[kept] = j;
+                            kept += 1;
+                        }
+                    }
+                }
+
+                if(neighbours > 0 && kept > neighbours)
+                {
+                    kept = keepStrongest(row, order, kept, neighbours);
+                }
+
+                // the point itself, then its neighbours in column order
+                int[] rowColumn = Arrays.copyOf(order, kept + 1);
+                rowColumn[kept] = i;
+                Arrays.sort(rowColumn);
+
+                double[] rowSimilarity = new double[kept + 1];
+
+                for(int e = 0; e < rowColumn.length; e += 1)
+                {
+                    rowSimilarity[e] = (rowColumn[e] == i) ? 0.0 : row[rowColumn[e]];
+                }
+
+                rowColumns[i] = rowColumn;
+                rowSimilarities[i] = rowSimilarity;
+            }
+        });
+
+        rowStart = new int[n + 1];
+
+        for(int i = 0; i < n; i += 1)
+        {
+            edges += rowColumns[i].length;
+            rowStart[i + 1] = edges;
+        }
+
+        columns = new int[edges];
+        similarities = new double[edges];
+        diagonal = new int[n];
+
+        for(int i = 0; i < n; i += 1)
+        {
+            System.arraycopy(rowColumns[i], 0, columns, rowStart[i], rowColumns[i].length);
+            System.arraycopy(rowSimilarities[i], 0, similarities, rowStart[i], rowSimilarities[i].length);
+            diagonal[i] = rowStart[i] + Arrays.binarySearch(rowColumns[i], i);
+        }
+
+        // transposing the edge list so that every column can be summed on its own
+        columnStart = new int[n + 1];
+        columnEdges = new int[edges];
+
+        for(edge = 0; edge < edges; edge += 1)
+        {
+            columnStart[columns[edge] + 1] += 1;
+        }
+
+        for(int k = 0; k < n; k += 1)
+        {
+            columnStart[k + 1] += columnStart[k];
+        }
+
+        int[] filled = Arrays.copyOf(columnStart, n);
+
+        for(int i = 0; i < n; i += 1)
+        {
+            for(edge = rowStart[i]; edge < rowStart[i + 1]; edge += 1)
+            {
+                columnEdges[filled[columns[edge]]] = edge;
+                filled[columns[edge]] += 1;
+            }
+        }
+    }
+
+
+    /**
+     * moves the indices of the strongest similarities to the front of order, ties going to the lower index
+     * @param row similarities of one reference point to all others
+     * @param order indices of the candidate neighbours
+     * @param size number of candidates in order
+     * @param neighbours number of neighbours to keep
+     * @return returns the number of neighbours kept
+     */
+    private static int keepStrongest(double[] row, int[] order, int size, int neighbours)
+    {
+        double[] keys = new double[size];
+
+        for(int c = 0; c < size; c += 1)
+        {
+            keys[c] = row[order[c]];
+        }
+
+        // the similarity of the neighbours-th strongest candidate splits kept from dropped
+        double cut = OrderStatistics.select(keys, 0, size, size - neighbours);
+        int kept = 0, ties = neighbours;
+
+        for(int c = 0; c < size; c += 1)
+        {
+            if(row[order[c]] > cut)
+            {
+                ties -= 1;
+            }
+        }
+
+        for(int c = 0; c < size; c += 1)
+        {
+            double value = row[order[c]];
+
+            if(value > cut || (value == cut && ties > 0))
+            {
+                if(value == cut)
+                {
+                    ties -= 1;
+                }
+
+                order[kept] = order[c];
+                kept += 1;
+            }
+        }
+
+        return kept;
+    }
+
+
+    /**
+     * sets the preference of every reference point as the slider quantile of all pairwise similarities.
+     * the quantile is taken over all pairs, not just the kept edges, so that it means the same as in the dense
+     * AffinityPropagation
+     */
+    private void setPreferences()
+    {
+        preference = OrderStatistics.pairwiseQuantile(data.getFingerprints(), numReferencePoints, numAccessPoints,
+                                                      slider, kernel) * gama;
+
+        for(int i = 0; i < numReferencePoints; i += 1)
+        {
+            similarities[diagonal[i]] = preference;
+        }
+    }
+
+
+    /**
+     * calculates the responsibility messages along the edges of one row from the row's two largest a(i,k) + s(i,k)
+     * @param indexA index of the reference point sending the messages
+     * @return returns the largest change of a responsibility in the row
+     */
+    private double setResponsibilities_row(int indexA)
+    {
+        double curr, max = -1.0 * Double.MAX_VALUE, second = -1.0 * Double.MAX_VALUE;
+        double updated, change = 0.0;
+        int maxEdge = -1, edge;
+
+        for(edge = rowStart[indexA]; edge < rowStart[indexA + 1]; edge += 1)
+        {
+            curr = availablities[edge] + similarities[edge];
+
+            if(curr > max)
+            {
+                second = max;
+                max = curr;
+                maxEdge = edge;
+            }
+
+            else if(curr > second)
+            {
+                second = curr;
+            }
+        }
+
+        for(edge = rowStart[indexA]; edge < rowStart[indexA + 1]; edge += 1)
+        {
+            curr = similarities[edge] - (edge == maxEdge ? second : max);
+            updated = dampingFactor * responsibilities[edge] + (1 - dampingFactor) * curr;
+            change = Math.max(change, Math.abs(updated - responsibilities[edge]));
+            responsibilities[edge] = updated;
+        }
+
+        return change;
+    }
+
+
+    /**
+     * sums max{0,r(i',k)} over the edges into columns [from, to), leaving out the self edges
+     */
+    private void setPositiveResponsibilitySums(int from, int to)
+    {
+        double curr, sum;
+
+        for(int k = from; k < to; k += 1)
+        {
+            sum = 0.0;
+
+            for(int c = columnStart[k]; c < columnStart[k + 1]; c += 1)
+            {
+                int edge = columnEdges[c];
+                curr = responsibilities[edge];
+
+                if(edge != diagonal[k] && curr > 0)
+                {
+                    sum += curr;
+                }
+            }
+
+            positiveSums[k] = sum;
+        }
+    }
+
+
+    /**
+     * calculates the availability messages along the edges of one row
+     * @param indexA index of the reference point receiving the messages
+     * @return returns the largest change of an availability in the row
+     */
+    private double setAvailabilities_row(int indexA)
+    {
+        double curr, sum, updated, change = 0.0;
+        int k;
+
+        for(int edge = rowStart[indexA]; edge < rowStart[indexA + 1]; edge += 1)
+        {
+            k = columns[edge];
+            sum = positiveSums[k];
+
+            if(k != indexA)
+            {
+                curr = responsibilities[edge];
+
+                if(curr > 0)
+                {
+                    sum -= curr;
+                }
+
+                sum += responsibilities[diagonal[k]];
+
+                if(sum > 0)
+                {
+                    sum = 0.0;
+                }
+            }
+
+            updated = dampingFactor * availablities[edge] + (1 - dampingFactor) * sum;
+            change = Math.max(change, Math.abs(updated - availablities[edge]));
+            availablities[edge] = updated;
+        }
+
+        return change;
+    }
+
+
+    /**
+     * finds the examplar of one reference point among its neighbours
+     * @param point_index index of the reference point
+     * @return returns the index of the examplar, or -1 if no value beats -Double.MAX_VALUE
+     */
+    private int findExamplar_index(int point_index)
+    {
+        double curr, max = -1.0 * Double.MAX_VALUE;
+        int examplar = -1;
+
+        for(int edge = rowStart[point_index]; edge < rowStart[point_index + 1]; edge += 1)
+        {
+            curr = availablities[edge] + responsibilities[edge];
+
+            if(curr > max)
+            {
+                max = curr;
+                examplar = columns[edge];
+            }
+        }
+
+        return examplar;
+    }
+
+
+    /**
+     * runs one iteration: responsibilities, then availabilities, then examplars. the largest message change
+     * of every row is left in rowChanges
+     * @return returns true if no reference point changed its examplar
+     */
+    private boolean iterate()
+    {
+        final int n = numReferencePoints;
+        int[] swap = previousExamplars;
+        previousExamplars = examplars;
+        examplars = swap;
+
+        ParallelRange.run(pool.get(), n, (from, to) ->
+        {
+            for(int i = from; i < to; i += 1)
+            {
+                rowChanges[i] = setResponsibilities_row(i);
+            }
+        });
+
+        ParallelRange.run(pool.get(), n, this::setPositiveResponsibilitySums);
+
+        ParallelRange.run(pool.get(), n, (from, to) ->
+        {
+            for(int i = from; i < to; i += 1)
+            {
+                rowChanges[i] = Math.max(rowChanges[i], setAvailabilities_row(i));
+                examplars[i] = findExamplar_index(i);
+            }
+        });
+
+        return Arrays.equals(examplars, previousExamplars);
+    }
+
+
+    /**
+     * does the actual clustering, until the convergence policy stops it (see getStopReason()). the run goes on
+     * from the current messages, and the iteration cap of the policy applies to each call
+     * @return returns the examplars and clusters found, with the statistics of the run
+     */
+    public ClusteringResult apCluster()
+    {
+        int unchanged = 0, start = iterations;
+        double maxMessageChange = 0.0;
+        stopReason = null;
+        build();
+
+        while(stopReason == null)
+        {
+            iterations += 1;
+
+            if(iterate() == true)
+            {
+                unchanged += 1;
+            }
+
+            else
+            {
+                unchanged = 0;
+            }
+
+            maxMessageChange = MessageKernels.max(rowChanges);
+            stopReason = convergence.check(iterations - start, unchanged, maxMessageChange);
+        }
+
+        setNumClusters();
+
+        return new ClusteringResult(data, new ClusterIndex(examplars), preference, netSimilarity(), iterations, stopReason,
+                                    maxMessageChange);
+    }
+
+
+    /**
+     * @return returns the sum of s(i,e(i)) over every reference point i with an examplar e(i), the preference for
+     * the examplars themselves; an examplar is always one of the point's edges
+     */
+    private double netSimilarity()
+    {
+        double netSimilarity = 0.0;
+
+        for(int i = 0; i < numReferencePoints; i += 1)
+        {
+            for(int edge = rowStart[i]; edge < rowStart[i + 1]; edge += 1)
+            {
+                if(columns[edge] == examplars[i])
+                {
+                    netSimilarity += similarities[edge];
+                }
+            }
+        }
+
+        return netSimilarity;
+    }
+
+
+    /**
+     * finds out and sets the number of distinct examplars
+     */
+    private void setNumClusters()
+    {
+        boolean[] seen = new boolean[numReferencePoints];
+        numClusters = 0;
+
+        for(int examplar : examplars)
+        {
+            if(examplar >= 0 && seen[examplar] == false)
+            {
+                seen[examplar] = true;
+                numClusters += 1;
+            }
+        }
+    }
+}
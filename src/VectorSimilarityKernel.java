@@ -0,0 +1,287 @@
+import jdk.incubator.vector.*;
+
+/*
+SIMD version of the similarity kernel. It needs a JDK with the Vector API (16 or newer) and
+must be compiled and run with --add-modules jdk.incubator.vector. Nothing refers to this
+class directly; SimilarityKernel.best() loads it by name and falls back to the scalar
+kernel when the module is missing. The single precision message rows run in FloatVector
+lanes, twice as many per vector as DoubleVector has. They do the same float operations as
+the scalar loops, without fused multiply-adds, so the messages come out bit for bit the
+same; only maxima are taken across lanes, and those do not depend on the order.
+ */
+class VectorSimilarityKernel extends SimilarityKernel
+{
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    double squaredDistance(double[] a, int offsetA, double[] b, int offsetB, int length)
+    {
+        DoubleVector sums = DoubleVector.zero(DOUBLES);
+        DoubleVector difference;
+        int i = 0, bound = DOUBLES.loopBound(length);
+        double sum, scalar;
+
+        for(; i < bound; i += DOUBLES.length())
+        {
+            difference = DoubleVector.fromArray(DOUBLES, a, offsetA + i).sub(DoubleVector.fromArray(DOUBLES, b, offsetB + i));
+            sums = difference.fma(difference, sums);
+        }
+
+        sum = sums.reduceLanes(VectorOperators.ADD);
+
+        // the tail that does not fill a whole vector
+        for(; i < length; i += 1)
+        {
+            scalar = a[offsetA + i] - b[offsetB + i];
+            sum += scalar * scalar;
+        }
+
+        return sum;
+    }
+
+    @Override
+    double dot(double[] data, int offsetA, int offsetB, int length)
+    {
+        DoubleVector sums = DoubleVector.zero(DOUBLES);
+        int i = 0, bound = DOUBLES.loopBound(length);
+        double sum;
+
+        for(; i < bound; i += DOUBLES.length())
+        {
+            sums = DoubleVector.fromArray(DOUBLES, data, offsetA + i).fma(DoubleVector.fromArray(DOUBLES, data, offsetB + i), sums);
+        }
+
+        sum = sums.reduceLanes(VectorOperators.ADD);
+
+        for(; i < length; i += 1)
+        {
+            sum += data[offsetA + i] * data[offsetB + i];
+        }
+
+        return sum;
+    }
+
+    @Override
+    double responsibilities(float[] similarities, float[] availablities, float[] responsibilities, int offset, int n,
+                            float dampingFactor)
+    {
+        FloatVector maxes = FloatVector.broadcast(FLOATS, -Float.MAX_VALUE), seconds = maxes, curr;
+        int k = 0, bound = FLOATS.loopBound(n), maxIndex = -1;
+        float max = -Float.MAX_VALUE, second, value, change;
+
+        // the largest and the second largest a(i,k) + s(i,k) of every lane
+        for(; k < bound; k += FLOATS.length())
+        {
+            curr = FloatVector.fromArray(FLOATS, availablities, offset + k).add(FloatVector.fromArray(FLOATS, similarities, offset + k));
+            seconds = seconds.max(curr.min(maxes));
+            maxes = maxes.max(curr);
+        }
+
+        // and of the row: the second largest is the largest of the lane seconds and of all lane maxima but one
+        second = seconds.reduceLanes(VectorOperators.MAX);
+
+        for(float lane : maxes.toArray())
+        {
+            if(lane > max)
+            {
+                second = Math.max(second, max);
+                max = lane;
+            }
+
+            else
+            {
+                second = Math.max(second, lane);
+            }
+        }
+
+        for(; k < n; k += 1)
+        {
+            value = availablities[offset + k] + similarities[offset + k];
+
+            if(value > max)
+            {
+                second = Math.max(second, max);
+                max = value;
+            }
+
+            else
+            {
+                second = Math.max(second, value);
+            }
+        }
+
+        // the scalar loop keeps the first column the maximum sits in
+        for(k = 0; k < bound && maxIndex < 0; k += FLOATS.length())
+        {
+            curr = FloatVector.fromArray(FLOATS, availablities, offset + k).add(FloatVector.fromArray(FLOATS, similarities, offset + k));
+            VectorMask<Float> found = curr.compare(VectorOperators.EQ, max);
+            maxIndex = found.anyTrue() ? k + found.firstTrue() : -1;
+        }
+
+        for(k = bound; k < n && maxIndex < 0; k += 1)
+        {
+            maxIndex = (availablities[offset + k] + similarities[offset + k] == max) ? k : -1;
+        }
+
+        if(maxIndex < 0)
+        {
+            return updateResponsibilities(similarities, responsibilities, offset, 0, n, max, dampingFactor);
+        }
+
+        change = updateResponsibilities(similarities, responsibilities, offset, 0, maxIndex, max, dampingFactor);
+        change = Math.max(change, updateResponsibilities(similarities, responsibilities, offset, maxIndex, maxIndex + 1,
+                                                         second, dampingFactor));
+
+        return Math.max(change, updateResponsibilities(similarities, responsibilities, offset, maxIndex + 1, n, max,
+                                                       dampingFactor));
+    }
+
+
+    /**
+     * damps r(i,k) towards s(i,k) - subtracted for the columns k in [from, to)
+     * @return returns the largest change of a responsibility in the range
+     */
+    private static float updateResponsibilities(float[] similarities, float[] responsibilities, int offset, int from,
+                                                int to, float subtracted, float dampingFactor)
+    {
+        FloatVector changes = FloatVector.zero(FLOATS), previous, updated;
+        float keep = 1 - dampingFactor, curr, scalar, change;
+        int k = from, bound = from + FLOATS.loopBound(to - from);
+
+        for(; k < bound; k += FLOATS.length())
+        {
+            previous = FloatVector.fromArray(FLOATS, responsibilities, offset + k);
+            updated = previous.mul(dampingFactor).add(FloatVector.fromArray(FLOATS, similarities, offset + k).sub(subtracted).mul(keep));
+            changes = changes.max(updated.sub(previous).abs());
+            updated.intoArray(responsibilities, offset + k);
+        }
+
+        change = changes.reduceLanes(VectorOperators.MAX);
+
+        for(; k < to; k += 1)
+        {
+            curr = similarities[offset + k] - subtracted;
+            scalar = dampingFactor * responsibilities[offset + k] + keep * curr;
+            change = Math.max(change, Math.abs(scalar - responsibilities[offset + k]));
+            responsibilities[offset + k] = scalar;
+        }
+
+        return change;
+    }
+
+
+    @Override
+    void positiveSums(float[] responsibilities, int offset, int row, int from, int to, float[] positiveSums,
+                      float[] diagonal)
+    {
+        if(row >= from && row < to)
+        {
+            addPositive(responsibilities, offset, from, row, positiveSums);
+            addPositive(responsibilities, offset, row + 1, to, positiveSums);
+            diagonal[row] = responsibilities[offset + row];
+        }
+
+        else
+        {
+            addPositive(responsibilities, offset, from, to, positiveSums);
+        }
+    }
+
+
+    /**
+     * adds max{0,r(i,k)} to the column sums of the columns k in [from, to)
+     */
+    private static void addPositive(float[] responsibilities, int offset, int from, int to, float[] positiveSums)
+    {
+        int k = from, bound = from + FLOATS.loopBound(to - from);
+        float curr;
+
+        for(; k < bound; k += FLOATS.length())
+        {
+            FloatVector.fromArray(FLOATS, positiveSums, k)
+                       .add(FloatVector.fromArray(FLOATS, responsibilities, offset + k).max(0.0f))
+                       .intoArray(positiveSums, k);
+        }
+
+        for(; k < to; k += 1)
+        {
+            curr = responsibilities[offset + k];
+
+            if(curr > 0)
+            {
+                positiveSums[k] += curr;
+            }
+        }
+    }
+
+
+    @Override
+    double availabilities(float[] responsibilities, float[] availablities, int offset, int row, int n,
+                          float[] positiveSums, float[] diagonal, float dampingFactor)
+    {
+        float change = updateAvailabilities(responsibilities, availablities, offset, 0, row, positiveSums, diagonal,
+                                            dampingFactor);
+        float previous = availablities[offset + row];
+        float updated = dampingFactor * previous + (1 - dampingFactor) * positiveSums[row];
+
+        // a(i,i) is the column sum itself
+        change = Math.max(change, Math.abs(updated - previous));
+        availablities[offset + row] = updated;
+
+        return Math.max(change, updateAvailabilities(responsibilities, availablities, offset, row + 1, n, positiveSums,
+                                                     diagonal, dampingFactor));
+    }
+
+
+    /**
+     * damps a(i,k) towards min{0, r(k,k) + the column sum without r(i,k)} for the columns k in [from, to), none of
+     * which is the row's own column
+     * @return returns the largest change of an availability in the range
+     */
+    private static float updateAvailabilities(float[] responsibilities, float[] availablities, int offset, int from,
+                                              int to, float[] positiveSums, float[] diagonal, float dampingFactor)
+    {
+        FloatVector changes = FloatVector.zero(FLOATS), previous, updated, sums;
+        float keep = 1 - dampingFactor, curr, sum, scalar, change;
+        int k = from, bound = from + FLOATS.loopBound(to - from);
+
+        for(; k < bound; k += FLOATS.length())
+        {
+            sums = FloatVector.fromArray(FLOATS, positiveSums, k)
+                              .sub(FloatVector.fromArray(FLOATS, responsibilities, offset + k).max(0.0f))
+                              .add(FloatVector.fromArray(FLOATS, diagonal, k))
+                              .min(0.0f);
+            previous = FloatVector.fromArray(FLOATS, availablities, offset + k);
+            updated = previous.mul(dampingFactor).add(sums.mul(keep));
+            changes = changes.max(updated.sub(previous).abs());
+            updated.intoArray(availablities, offset + k);
+        }
+
+        change = changes.reduceLanes(VectorOperators.MAX);
+
+        for(; k < to; k += 1)
+        {
+            sum = positiveSums[k];
+            curr = responsibilities[offset + k];
+
+            if(curr > 0)
+            {
+                sum -= curr;
+            }
+
+            sum += diagonal[k];
+
+            if(sum > 0)
+            {
+                sum = 0.0f;
+            }
+
+            scalar = dampingFactor * availablities[offset + k] + keep * sum;
+            change = Math.max(change, Math.abs(scalar - availablities[offset + k]));
+            availablities[offset + k] = scalar;
+        }
+
+        return change;
+    }
+}
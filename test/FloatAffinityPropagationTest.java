@@ -0,0 +1,164 @@
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+
+/*
+Checks the float engine against the double one. Every survey is synthetic, drawn the way
+the benchmarks module's SyntheticFingerprints draws them: access points at random in a
+50 x 50 m area and readings from a log-distance path loss model with 2 dB of gaussian
+noise, rounded to whole dBm. The single precision message kernels are checked on their
+own as well, the vector ones against the scalar ones, float for float.
+ */
+public class FloatAffinityPropagationTest
+{
+    private static final int[][] SIZES = {{100, 10}, {250, 20}, {500, 50}};
+    private static final long[] SEEDS = {1, 2, 3};
+    private static final double[] SLIDERS = {0.05, 0.5};
+
+
+    @Test
+    public void findsTheExamplarsOfTheDoubleEngine()
+    {
+        for(int[] size : SIZES)
+        {
+            for(long seed : SEEDS)
+            {
+                FingerprintSet data = survey(size[0], size[1], seed);
+
+                for(double slider : SLIDERS)
+                {
+                    String run = size[0] + " x " + size[1] + ", seed " + seed + ", slider " + slider;
+                    ClusteringResult expected = new AffinityPropagation(data, slider).apCluster();
+                    ClusteringResult actual;
+
+                    try(FloatAffinityPropagation solver = new FloatAffinityPropagation(data, slider))
+                    {
+                        actual = solver.apCluster();
+                    }
+
+                    assertEquals(expected.getPreference(), actual.getPreference(), run);
+                    assertArrayEquals(expected.getExamplars(), actual.getExamplars(), run);
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void vectorMessagesMatchTheScalarOnes()
+    {
+        SimilarityKernel vector = SimilarityKernel.best(), scalar = SimilarityKernel.scalar();
+        Random random = new Random(7);
+
+        assumeTrue(vector != scalar, "the Vector API is not available");
+
+        // row lengths around the vector widths, with a tail and without one
+        for(int n : new int[]{1, 3, 8, 16, 17, 33, 64, 100})
+        {
+            for(int trial = 0; trial < 20; trial += 1)
+            {
+                float[] similarities = row(random, n, 20), availablities = row(random, n, 5);
+                float[] responsibilities = row(random, n, 5), sums = row(random, n, 50), diagonal = row(random, n, 5);
+                int i = random.nextInt(n);
+                float damping = 0.5f + random.nextInt(9) * 0.05f;
+
+                // a tie for the largest a(i,k) + s(i,k), the first column has to win in both
+                if(n > 1 && trial % 2 == 0)
+                {
+                    int k = random.nextInt(n), max = maxColumn(similarities, availablities);
+                    similarities[k] = similarities[max];
+                    availablities[k] = availablities[max];
+                }
+
+                float[] a = responsibilities.clone(), b = responsibilities.clone();
+                assertEquals(scalar.responsibilities(similarities, availablities, a, 0, n, damping),
+                             vector.responsibilities(similarities, availablities, b, 0, n, damping));
+                assertArrayEquals(a, b);
+
+                float[] sumsA = sums.clone(), sumsB = sums.clone(), diagonalA = diagonal.clone(), diagonalB = diagonal.clone();
+                int from = random.nextInt(n), to = from + random.nextInt(n - from + 1);
+                scalar.positiveSums(responsibilities, 0, i, from, to, sumsA, diagonalA);
+                vector.positiveSums(responsibilities, 0, i, from, to, sumsB, diagonalB);
+                assertArrayEquals(sumsA, sumsB);
+                assertArrayEquals(diagonalA, diagonalB);
+
+                a = availablities.clone();
+                b = availablities.clone();
+                assertEquals(scalar.availabilities(responsibilities, a, 0, i, n, sums, diagonal, damping),
+                             vector.availabilities(responsibilities, b, 0, i, n, sums, diagonal, damping));
+                assertArrayEquals(a, b);
+            }
+        }
+    }
+
+
+    /**
+     * @return returns a synthetic survey of n reference points with m readings each
+     */
+    private static FingerprintSet survey(int n, int m, long seed)
+    {
+        Random random = new Random(seed);
+        double[] accessX = new double[m], accessY = new double[m];
+        double[] fingerprints = new double[n * m];
+        ReferencePoint[] points = new ReferencePoint[n];
+
+        for(int j = 0; j < m; j += 1)
+        {
+            accessX[j] = random.nextDouble() * 50.0;
+            accessY[j] = random.nextDouble() * 50.0;
+        }
+
+        for(int i = 0; i < n; i += 1)
+        {
+            double x = Math.round(random.nextDouble() * 500.0) / 10.0;
+            double y = Math.round(random.nextDouble() * 500.0) / 10.0;
+
+            for(int j = 0; j < m; j += 1)
+            {
+                double distance = Math.hypot(accessX[j] - x, accessY[j] - y);
+                fingerprints[i * m + j] = Math.max(-100, Math.round(-40.0 - 20.0 * Math.log10(distance + 1.0)
+                                                                    + random.nextGaussian() * 2.0));
+            }
+
+            points[i] = new ReferencePoint(x, y, fingerprints, i * m, m);
+        }
+
+        return new FingerprintSet("synthetic", "synthetic", "synthetic", 1, points, fingerprints, m, null);
+    }
+
+
+    /**
+     * @return returns n random floats in (-scale, scale), some of them exactly 0
+     */
+    private static float[] row(Random random, int n, float scale)
+    {
+        float[] row = new float[n];
+
+        for(int k = 0; k < n; k += 1)
+        {
+            row[k] = (random.nextInt(8) == 0) ? 0.0f : (random.nextFloat() * 2 - 1) * scale;
+        }
+
+        return row;
+    }
+
+
+    private static int maxColumn(float[] similarities, float[] availablities)
+    {
+        int column = 0;
+
+        for(int k = 1; k < similarities.length; k += 1)
+        {
+            if(similarities[k] + availablities[k] > similarities[column] + availablities[column])
+            {
+                column = k;
+            }
+        }
+
+        return column;
+    }
+}